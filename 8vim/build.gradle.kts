@@ -1,5 +1,7 @@
 @file:Suppress("DSL_SCOPE_VIOLATION")
 
+import com.android.build.api.artifact.ScopedArtifact
+import com.android.build.api.variant.ScopedArtifacts
 import java.io.FileInputStream
 import java.util.Properties
 import org.gradle.api.tasks.testing.logging.TestExceptionFormat
@@ -36,6 +38,35 @@ tasks.check {
     dependsOn("checkstyle")
 }
 
+/**
+ * Runs `LayoutCompiler` from :layout-compiler over the embedded layouts, on the classes of a
+ * variant and its dependencies, with the Android framework from the SDK android.jar. Along with
+ * the compiled layouts, it writes the manifest of the embedded layouts.
+ */
+abstract class CompileLayoutsTask : JavaExec() {
+    @get:InputFiles
+    @get:PathSensitive(PathSensitivity.NAME_ONLY)
+    abstract val layouts: ConfigurableFileCollection
+
+    @get:Classpath
+    abstract val variantJars: ListProperty<RegularFile>
+
+    @get:Classpath
+    abstract val variantDirectories: ListProperty<Directory>
+
+    @get:OutputDirectory
+    abstract val outputDirectory: DirectoryProperty
+
+    override fun exec() {
+        val output = outputDirectory.get().asFile
+        output.deleteRecursively()
+        args(listOf(output.absolutePath) + layouts.files.map { it.absolutePath })
+        super.exec()
+    }
+}
+
+val layoutCompiler: Configuration by configurations.creating
+
 android {
     val versionPropsFile = file("version.properties")
     val versionProps = Properties()
@@ -159,6 +190,33 @@ android {
     }
 }
 
+androidComponents {
+    onVariants { variant ->
+        val variantName = variant.name.replaceFirstChar { it.uppercase() }
+        val compileLayouts = tasks.register<CompileLayoutsTask>("compile${variantName}Layouts") {
+            layouts.from(fileTree("src/main/res/raw") { include("*.yaml") })
+            mainClass.set("inc.flide.vim8.ime.layout.LayoutCompiler")
+            classpath(
+                layoutCompiler,
+                variantJars,
+                variantDirectories,
+                androidComponents.sdkComponents.bootClasspath
+            )
+        }
+        variant.artifacts.forScope(ScopedArtifacts.Scope.ALL)
+            .use(compileLayouts)
+            .toGet(
+                ScopedArtifact.CLASSES,
+                CompileLayoutsTask::variantJars,
+                CompileLayoutsTask::variantDirectories
+            )
+        variant.sources.assets?.addGeneratedSourceDirectory(
+            compileLayouts,
+            CompileLayoutsTask::outputDirectory
+        )
+    }
+}
+
 tasks.withType<JacocoReport> {
     dependsOn(tasks.withType<Test>())
     reports {
@@ -192,6 +250,8 @@ tasks.withType<Test> {
 }
 
 dependencies {
+    layoutCompiler(project(":layout-compiler"))
+
     implementation(libs.accompanist.systemuicontroller)
     implementation(libs.android.material)
     implementation(libs.androidx.appcompat)
@@ -10,9 +10,13 @@ public final class GeometricUtilities {
     }
 
     public static double getSquaredDistanceBetweenPoints(PointF a, PointF b) {
-        double distanceXSquare = Math.pow(a.x - b.x, 2);
-        double distanceYSquare = Math.pow(a.y - b.y, 2);
-        return Math.abs(distanceXSquare + distanceYSquare);
+        return getSquaredDistanceBetweenPoints(a.x, a.y, b.x, b.y);
+    }
+
+    public static double getSquaredDistanceBetweenPoints(float ax, float ay, float bx, float by) {
+        double distanceX = ax - bx;
+        double distanceY = ay - by;
+        return distanceX * distanceX + distanceY * distanceY;
     }
 
     public static Direction getBaseQuadrant(int continuousQuadrantValue) {
@@ -6,6 +6,7 @@ import static inc.flide.vim8.ime.layout.models.QuadrantKt.NUMBER_OF_SECTORS;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -21,22 +22,28 @@ import android.view.MotionEvent;
 import android.view.View;
 import androidx.annotation.Nullable;
 import androidx.core.graphics.ColorUtils;
-import androidx.vectordrawable.graphics.drawable.VectorDrawableCompat;
 import inc.flide.vim8.AppPrefs;
+import inc.flide.vim8.BuildConfig;
 import inc.flide.vim8.MainInputMethodService;
 import inc.flide.vim8.R;
 import inc.flide.vim8.geometry.Circle;
 import inc.flide.vim8.geometry.Dimension;
 import inc.flide.vim8.ime.KeyboardTheme;
+import inc.flide.vim8.ime.TintedIcon;
+import inc.flide.vim8.ime.TintedIconCache;
 import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener;
 import inc.flide.vim8.ime.layout.models.FingerPosition;
 import inc.flide.vim8.ime.layout.models.LayerLevel;
+import inc.flide.vim8.ime.recording.GestureRecorder;
+import java.io.File;
 
 public class XpadView extends View {
     public static final int XPAD_ICON_ALPHA = 85;
     public static final int XPAD_CIRCLE_OFFSET_FACTOR = 26;
     public static final float XPAD_CIRCLE_RADIUS_FACTOR = 40f;
     public static final float XPAD_LETTER_HIGHLIGHT_ROUNDNESS = 25f;
+    public static final float XPAD_EDGE_HYSTERESIS_FACTOR = 0.1f;
+    public static final float XPAD_SECTOR_HYSTERESIS = 0.15f;
     public static final float FOREGROUND_STROKE_FACTOR = 0.75f;
     public static final float LETTER_BACKGROUND_BLEND_RATIO = 0.5f;
     public static final int DEGREE_45 = 45;
@@ -47,6 +54,8 @@ public class XpadView extends View {
     private static final short TRAIL_STEPS = 150;
     private static final byte TRAIL_STEP_DISTANCE = 5;
     private static final byte TRAIL_MAX_RADIUS = 14;
+    private static final String GESTURE_RECORDINGS_DIRECTORY = "gestures";
+    private static final String GESTURE_RECORDING_EXTENSION = ".8vgr";
     private final Path typingTrailPath = new Path();
     private final Paint backgroundPaint = new Paint();
     private final Paint foregroundPaint = new Paint();
@@ -66,9 +75,25 @@ public class XpadView extends View {
     private final RectF sectorLineBounds = new RectF();
     private final float[] trialPathPos = new float[2];
     private final PathMeasure pathMeasure = new PathMeasure();
+    private FingerPosition currentFingerPosition = FingerPosition.NO_TOUCH;
+    private float lastTrailX;
+    private float lastTrailY;
     private MainKeypadActionListener actionListener;
+    @Nullable
+    private GestureRecorder gestureRecorder;
     private AppPrefs prefs;
     private KeyboardTheme keyboardTheme;
+    private final Canvas staticLayerCanvas = new Canvas();
+    @Nullable
+    private Bitmap staticLayer;
+    private boolean staticLayerDirty = true;
+    @Nullable
+    private String staticLayerCharacterSet;
+    private int staticLayerShiftIcon;
+    private TintedIconCache sectorIcons;
+    // Layouts may be published from any thread, the view is only touched from its own.
+    private final Runnable onKeyboardDataChanged = () -> post(this::invalidateStaticLayer);
+    private int iconSize;
 
     public XpadView(Context context) {
         super(context);
@@ -88,9 +113,11 @@ public class XpadView extends View {
     private void initialize(Context context) {
         prefs = appPreferenceModel().java();
         keyboardTheme = KeyboardTheme.getInstance();
+        sectorIcons = new TintedIconCache(context);
+        iconSize = getResources().getDimensionPixelSize(R.dimen.icon_size);
         keyboardTheme.onChange(this::updateColors);
 
-        prefs.getLayout().getCurrent().observe(newValue -> invalidate());
+        prefs.getLayout().getCurrent().observe(newValue -> invalidateStaticLayer());
         AppPrefs.Keyboard.Circle circlePrefs = prefs.getKeyboard().getCircle();
         circlePrefs.getRadiusSizeFactor().observe(this::onCirclePrefsChanged);
         circlePrefs.getXCentreOffset().observe(this::onCirclePrefsChanged);
@@ -113,17 +140,18 @@ public class XpadView extends View {
 
     private void onCirclePrefsChanged(int newValue) {
         this.computeComponentPositions(this.getWidth(), this.getHeight());
-        this.invalidate();
+        this.invalidateStaticLayer();
     }
 
     private void onDisplayPrefsChanged(boolean newValue) {
-        this.invalidate();
+        this.invalidateStaticLayer();
     }
 
     private void updateColors() {
         backgroundPaint.setColor(keyboardTheme.getBackgroundColor());
         foregroundPaint.setColor(keyboardTheme.getForegroundColor());
-        invalidate();
+        sectorIcons.retainTint(keyboardTheme.getForegroundColor());
+        invalidateStaticLayer();
     }
 
     private void computeComponentPositions(int fullWidth, int fullHeight) {
@@ -163,6 +191,11 @@ public class XpadView extends View {
 
         circle.centre = circleCenter;
         circle.radius = radius;
+        circle.edgeHysteresis = radius * XPAD_EDGE_HYSTERESIS_FACTOR;
+        circle.sectorHysteresis = XPAD_SECTOR_HYSTERESIS;
+        if (gestureRecorder != null) {
+            gestureRecorder.writeGeometry(circle);
+        }
 
 
         // Compute sector demarcation lines as if they were all going orthogonal (like a "+").
@@ -203,6 +236,7 @@ public class XpadView extends View {
         xformMatrix.mapPoints(letterPositions);
 
         sectorLines.computeBounds(sectorLineBounds, false); // Used to position icons
+        staticLayerDirty = true;
     }
 
     private boolean isTabletInLandscape() {
@@ -224,6 +258,41 @@ public class XpadView extends View {
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        MainKeypadActionListener.onKeyboardDataChanged(onKeyboardDataChanged);
+        // Recording is a development aid, release builds never record.
+        if (BuildConfig.DEBUG && prefs.getInternal().getRecordGestures().get()) {
+            startGestureRecording();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // Drop any pending long press timer, it would fire for a view that is gone.
+        actionListener.movementCanceled();
+        MainKeypadActionListener.removeOnKeyboardDataChanged(onKeyboardDataChanged);
+        stopGestureRecording();
+        releaseStaticLayer();
+        sectorIcons.clear();
+        super.onDetachedFromWindow();
+    }
+
+    private void startGestureRecording() {
+        File directory = new File(getContext().getFilesDir(), GESTURE_RECORDINGS_DIRECTORY);
+        File file = new File(directory, System.currentTimeMillis() + GESTURE_RECORDING_EXTENSION);
+        gestureRecorder = new GestureRecorder(file);
+        gestureRecorder.writeGeometry(circle);
+    }
+
+    private void stopGestureRecording() {
+        if (gestureRecorder != null) {
+            gestureRecorder.close();
+            gestureRecorder = null;
+        }
+    }
+
     @Override
     protected void onFocusChanged(boolean gainFocus, int direction, @Nullable Rect previouslyFocusedRect) {
         super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
@@ -252,6 +321,73 @@ public class XpadView extends View {
             paintTypingTrail(canvas);
         }
 
+        String characterSet = getCharacterSetToDisplay();
+        String currentLetter = actionListener.getCurrentLetter() != null
+                ? String.valueOf(actionListener.getCurrentLetter().charAt(0))
+                : null;
+        Bitmap layer = getStaticLayer(characterSet);
+        if (layer != null) {
+            canvas.drawBitmap(layer, 0, 0, null);
+        }
+
+        boolean userPreferWheelLetters = prefs.getKeyboard().getDisplay().getShowLettersOnWheel().get();
+        if (userPreferWheelLetters) {
+            paintCandidateLetters(canvas, characterSet, currentLetter, actionListener.getCandidateMask());
+            if (currentLetter != null) {
+                paintCurrentLetter(canvas, characterSet, currentLetter);
+            }
+        }
+    }
+
+    /**
+     * Marks the static layer for a redraw, for changes its key does not capture.
+     */
+    private void invalidateStaticLayer() {
+        staticLayerDirty = true;
+        invalidate();
+    }
+
+    /**
+     * Returns the wheel, sector lines, icons and letters, drawn once and kept until one of them
+     * changes. Nothing a gesture changes is part of it: the trail goes below it, the candidate and
+     * current letters above, so that moving the finger only redraws those.
+     */
+    @Nullable
+    private Bitmap getStaticLayer(String characterSet) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (staticLayer == null || staticLayer.getWidth() != width || staticLayer.getHeight() != height) {
+            releaseStaticLayer();
+            staticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            staticLayerCanvas.setBitmap(staticLayer);
+        }
+
+        int shiftIcon = getShiftIconToDisplay();
+        if (staticLayerDirty
+                || !characterSet.equals(staticLayerCharacterSet)
+                || shiftIcon != staticLayerShiftIcon) {
+            staticLayer.eraseColor(Color.TRANSPARENT);
+            paintStaticLayer(staticLayerCanvas, characterSet, shiftIcon);
+            staticLayerCharacterSet = characterSet;
+            staticLayerShiftIcon = shiftIcon;
+            staticLayerDirty = false;
+        }
+        return staticLayer;
+    }
+
+    private void releaseStaticLayer() {
+        if (staticLayer != null) {
+            staticLayerCanvas.setBitmap(null);
+            staticLayer.recycle();
+            staticLayer = null;
+        }
+        staticLayerDirty = true;
+    }
+
+    private void paintStaticLayer(Canvas canvas, String characterSet, int shiftIcon) {
         float density = getResources().getDisplayMetrics().density;
         foregroundPaint.setStrokeWidth(2 * density);
         foregroundPaint.setStyle(Paint.Style.STROKE);
@@ -268,63 +404,87 @@ public class XpadView extends View {
         boolean userPrefersSectorIcons = prefs.getKeyboard().getDisplay().getShowSectorIcons().get();
 
         if (userPrefersSectorIcons) {
-            setupSectorIcons(centreXValue, centreYValue, canvas);
+            setupSectorIcons(centreXValue, centreYValue, canvas, shiftIcon);
         }
 
+        // Paint for the regular and bold fonts.
+        setForeground(foregroundPaint, density);
+        setForeground(foregroundHighlightPaint, density);
+
         //the text along the lines
         boolean userPreferWheelLetters = prefs.getKeyboard().getDisplay().getShowLettersOnWheel().get();
 
         if (userPreferWheelLetters) {
-            // Make the color the same as the typing trail, but blend it with white
-            // because it's too hard to see a black font on dark backgrounds.
-            int letterBackgroundColor =
-                    ColorUtils.blendARGB(typingTrailPaint.getColor(), Color.WHITE,
-                            LETTER_BACKGROUND_BLEND_RATIO);
+            for (int i = 0; i < characterSet.length(); i++) {
+                String letter = String.valueOf(characterSet.charAt(i));
+                canvas.drawText(letter, letterPositions[i * 2], letterPositions[i * 2 + 1], foregroundPaint);
+            }
+        }
+    }
+
+    private void paintCandidateLetters(Canvas canvas, String characterSet, @Nullable String currentLetter,
+                                       int candidateMask) {
+        if (candidateMask == 0) {
+            return;
+        }
+        for (int i = 0; i < characterSet.length(); i++) {
+            if ((candidateMask & (1 << i)) == 0) {
+                continue;
+            }
+            if (currentLetter != null && currentLetter.charAt(0) == characterSet.charAt(i)) {
+                continue;
+            }
+            // Characters still reachable by the current gesture are drawn in bold, over their
+            // regular glyph in the static layer.
+            canvas.drawText(characterSet, i, i + 1, letterPositions[i * 2], letterPositions[i * 2 + 1],
+                    foregroundHighlightPaint);
+        }
+    }
 
-            letterBackgroundPaint.setColor(letterBackgroundColor);
+    private void paintCurrentLetter(Canvas canvas, String characterSet, String currentLetter) {
+        // Make the color the same as the typing trail, but blend it with white
+        // because it's too hard to see a black font on dark backgrounds.
+        int letterBackgroundColor =
+                ColorUtils.blendARGB(typingTrailPaint.getColor(), Color.WHITE,
+                        LETTER_BACKGROUND_BLEND_RATIO);
 
-            letterBackgroundOutlinePaint.setColor(Color.BLACK);
-            letterBackgroundOutlinePaint.setStyle(Paint.Style.STROKE);
-            letterBackgroundOutlinePaint.setStrokeWidth(3f);
+        letterBackgroundPaint.setColor(letterBackgroundColor);
 
-            letterBackgroundPaint.setAntiAlias(true);
-            letterBackgroundOutlinePaint.setAntiAlias(true);
+        letterBackgroundOutlinePaint.setColor(Color.BLACK);
+        letterBackgroundOutlinePaint.setStyle(Paint.Style.STROKE);
+        letterBackgroundOutlinePaint.setStrokeWidth(3f);
 
-            // Paint for the regular and bold fonts.
-            setForeground(foregroundPaint, density);
-            setForeground(foregroundHighlightPaint, density);
+        letterBackgroundPaint.setAntiAlias(true);
+        letterBackgroundOutlinePaint.setAntiAlias(true);
 
-            String characterSet = getCharacterSetToDisplay();
-            for (int i = 0; i < characterSet.length(); i++) {
-                Paint paint = foregroundPaint;
-                String letter = String.valueOf(characterSet.charAt(i));
-                if (actionListener.getCurrentLetter() != null
-                        && String.valueOf(actionListener.getCurrentLetter().charAt(0)).equals(letter)) {
-                    paint = foregroundHighlightPaint;
-
-                    // Draw a box around the current letter.
-                    float characterHeightWidth =
-                            foregroundPaint.getFontMetrics().descent - foregroundPaint.getFontMetrics().ascent;
-                    canvas.drawRoundRect(
-                            letterPositions[i * 2] - (characterHeightWidth / 2),
-                            letterPositions[i * 2 + 1] - characterHeightWidth,
-                            letterPositions[i * 2] + (characterHeightWidth / 2),
-                            letterPositions[i * 2 + 1] + (characterHeightWidth / 2),
-                            XPAD_LETTER_HIGHLIGHT_ROUNDNESS, XPAD_LETTER_HIGHLIGHT_ROUNDNESS,
-                            letterBackgroundPaint
-                    );
-
-                    canvas.drawRoundRect(
-                            letterPositions[i * 2] - (characterHeightWidth / 2),
-                            letterPositions[i * 2 + 1] - characterHeightWidth,
-                            letterPositions[i * 2] + (characterHeightWidth / 2),
-                            letterPositions[i * 2 + 1] + (characterHeightWidth / 2),
-                            XPAD_LETTER_HIGHLIGHT_ROUNDNESS, XPAD_LETTER_HIGHLIGHT_ROUNDNESS,
-                            letterBackgroundOutlinePaint
-                    );
-                }
-                canvas.drawText(letter, letterPositions[i * 2], letterPositions[i * 2 + 1], paint);
+        for (int i = 0; i < characterSet.length(); i++) {
+            String letter = String.valueOf(characterSet.charAt(i));
+            if (!letter.equals(currentLetter)) {
+                continue;
             }
+
+            // Draw a box around the current letter.
+            float characterHeightWidth =
+                    foregroundPaint.getFontMetrics().descent - foregroundPaint.getFontMetrics().ascent;
+            canvas.drawRoundRect(
+                    letterPositions[i * 2] - (characterHeightWidth / 2),
+                    letterPositions[i * 2 + 1] - characterHeightWidth,
+                    letterPositions[i * 2] + (characterHeightWidth / 2),
+                    letterPositions[i * 2 + 1] + (characterHeightWidth / 2),
+                    XPAD_LETTER_HIGHLIGHT_ROUNDNESS, XPAD_LETTER_HIGHLIGHT_ROUNDNESS,
+                    letterBackgroundPaint
+            );
+
+            canvas.drawRoundRect(
+                    letterPositions[i * 2] - (characterHeightWidth / 2),
+                    letterPositions[i * 2 + 1] - characterHeightWidth,
+                    letterPositions[i * 2] + (characterHeightWidth / 2),
+                    letterPositions[i * 2 + 1] + (characterHeightWidth / 2),
+                    XPAD_LETTER_HIGHLIGHT_ROUNDNESS, XPAD_LETTER_HIGHLIGHT_ROUNDNESS,
+                    letterBackgroundOutlinePaint
+            );
+            canvas.drawText(letter, letterPositions[i * 2], letterPositions[i * 2 + 1],
+                    foregroundHighlightPaint);
         }
     }
 
@@ -341,12 +501,11 @@ public class XpadView extends View {
         paint.setTypeface(font);
     }
 
-    private void setupSectorIcons(int centreXValue, int centreYValue, Canvas canvas) {
+    private void setupSectorIcons(int centreXValue, int centreYValue, Canvas canvas, int shiftIcon) {
 
-        int iconSize = getResources().getDimensionPixelSize(R.dimen.icon_size);
         int iconHalfWidth = iconSize / 2;
         int iconHalfHeight = iconSize / 2;
-        sectorLines.computeBounds(sectorLineBounds, false);
+        // sectorLineBounds is kept up to date by computeComponentPositions
         //Number pad icon (left side)
         int iconCenterX = (int) Math.max(sectorLineBounds.left, 0);
         int iconCenterY = centreYValue;
@@ -372,35 +531,30 @@ public class XpadView extends View {
 
         //for caps lock and shift icon
         iconCenterY = (int) Math.max(sectorLineBounds.top, 0);
-        int shiftIconToDisplay = R.drawable.ic_no_capslock;
-        if (actionListener.isShiftSet()) {
-            shiftIconToDisplay = R.drawable.ic_shift_engaged;
-        }
-        if (actionListener.isCapsLockSet()) {
-            shiftIconToDisplay = R.drawable.ic_capslock_engaged;
-        }
         drawIconInSector(iconCenterX - iconHalfWidth,
                 iconCenterY - iconHalfHeight,
                 canvas,
-                shiftIconToDisplay);
+                shiftIcon);
     }
 
-    private void drawIconInSector(int coordinateX, int coordinateY, Canvas canvas, int resourceId) {
-        int iconSize = getResources().getDimensionPixelSize(R.dimen.icon_size);
+    private int getShiftIconToDisplay() {
+        if (actionListener.isCapsLockSet()) {
+            return R.drawable.ic_capslock_engaged;
+        }
+        if (actionListener.isShiftSet()) {
+            return R.drawable.ic_shift_engaged;
+        }
+        return R.drawable.ic_no_capslock;
+    }
 
-        VectorDrawableCompat iconVectorDrawable = VectorDrawableCompat
-                .create(getContext().getResources(), resourceId, null);
-        if (iconVectorDrawable == null) {
+    private void drawIconInSector(int coordinateX, int coordinateY, Canvas canvas, int resourceId) {
+        Bitmap icon = sectorIcons.get(new TintedIcon(resourceId, keyboardTheme.getForegroundColor(),
+                XPAD_ICON_ALPHA, iconSize));
+        if (icon == null) {
             return;
         }
 
-        iconVectorDrawable.setBounds(coordinateX,
-                coordinateY,
-                coordinateX + iconSize,
-                coordinateY + iconSize);
-        iconVectorDrawable.setTint(keyboardTheme.getForegroundColor());
-        iconVectorDrawable.setAlpha(XPAD_ICON_ALPHA);
-        iconVectorDrawable.draw(canvas);
+        canvas.drawBitmap(icon, coordinateX, coordinateY, null);
     }
 
     private void paintTypingTrail(Canvas canvas) {
@@ -428,41 +582,70 @@ public class XpadView extends View {
         return actionListener.getLowerCaseCharacters(layer);
     }
 
-    private FingerPosition getCurrentFingerPosition(PointF position) {
-        if (circle.isPointInsideCircle(position)) {
-            return FingerPosition.INSIDE_CIRCLE;
-        } else {
-            return circle.getSectorOfPoint(position);
+    private FingerPosition getCurrentFingerPosition(float x, float y) {
+        // Keep the integer truncation of the raw coordinates, sectors are decided on whole pixels.
+        currentFingerPosition = circle.getFingerPosition((int) x, (int) y, currentFingerPosition);
+        return currentFingerPosition;
+    }
+
+    private boolean extendTypingTrail(float x, float y) {
+        if (x == lastTrailX && y == lastTrailY) {
+            return false;
         }
+        typingTrailPath.lineTo(x, y);
+        lastTrailX = x;
+        lastTrailY = y;
+        return true;
+    }
+
+    private boolean movementContinues(float x, float y, boolean trailVisible) {
+        boolean stateChanged = actionListener.movementContinues(getCurrentFingerPosition(x, y));
+        boolean trailChanged = extendTypingTrail(x, y);
+        return stateChanged || (trailVisible && trailChanged);
     }
 
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public boolean onTouchEvent(MotionEvent e) {
-        PointF position = new PointF((int) e.getX(), (int) e.getY());
-        FingerPosition currentFingerPosition = getCurrentFingerPosition(position);
-        invalidate();
+        if (gestureRecorder != null) {
+            gestureRecorder.write(e);
+        }
         switch (e.getActionMasked()) {
             case MotionEvent.ACTION_DOWN -> {
-                actionListener.movementStarted(currentFingerPosition);
+                currentFingerPosition = FingerPosition.NO_TOUCH;
+                actionListener.movementStarted(getCurrentFingerPosition(e.getX(), e.getY()));
                 typingTrailPath.reset();
                 typingTrailPath.moveTo(e.getX(), e.getY());
+                lastTrailX = e.getX();
+                lastTrailY = e.getY();
                 typingTrailPaint.setColor(keyboardTheme.getTrailColor());
+                invalidate();
                 return true;
             }
             case MotionEvent.ACTION_MOVE -> {
-                actionListener.movementContinues(currentFingerPosition);
-                typingTrailPath.lineTo(e.getX(), e.getY());
+                // Samples batched since the last event are replayed in order,
+                // so a sector crossed between two frames is not lost.
+                boolean trailVisible = prefs.getKeyboard().getTrail().isVisible().get();
+                boolean changed = false;
+                for (int h = 0; h < e.getHistorySize(); h++) {
+                    changed |= movementContinues(e.getHistoricalX(h), e.getHistoricalY(h), trailVisible);
+                }
+                changed |= movementContinues(e.getX(), e.getY(), trailVisible);
+                if (changed) {
+                    invalidate();
+                }
                 return true;
             }
             case MotionEvent.ACTION_UP -> {
                 typingTrailPath.reset();
                 actionListener.movementEnds();
+                invalidate();
                 return true;
             }
             case MotionEvent.ACTION_CANCEL -> {
                 typingTrailPath.reset();
                 actionListener.movementCanceled();
+                invalidate();
                 return true;
             }
             default -> {
@@ -470,4 +653,4 @@ public class XpadView extends View {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -20,7 +20,7 @@ import inc.flide.vim8.theme.lightColorPalette
 
 fun appPreferenceModel() = Datastore.getOrCreatePreferenceModel(AppPrefs::class, ::AppPrefs)
 
-class AppPrefs : PreferenceModel(3) {
+class AppPrefs : PreferenceModel(4) {
     val layout = Layout()
     val theme = Theme()
     val clipboard = Clipboard()
@@ -42,11 +42,6 @@ class AppPrefs : PreferenceModel(3) {
     inner class Layout {
         val custom = Custom()
 
-        val cache = stringSet(
-            key = "prefs_layout_cache",
-            default = emptySet()
-        )
-
         val current = custom(
             key = "prefs_layout_current",
             default = EmbeddedLayout("en"),
@@ -187,6 +182,7 @@ class AppPrefs : PreferenceModel(3) {
     inner class Internal {
         val isImeSetup = boolean(key = "internal__is_ime_set_up", default = false)
         val versionCode = int(key = "internal__versionCode", default = BuildConfig.VERSION_CODE)
+        val recordGestures = boolean(key = "internal__record_gestures", default = false)
     }
 
     override fun migrate(
@@ -266,13 +262,17 @@ class AppPrefs : PreferenceModel(3) {
                 else -> entry.keepAsIs()
             }
 
+            3 -> when (entry.key) {
+                "prefs_layout_cache" -> entry.reset()
+                else -> entry.keepAsIs()
+            }
+
             else -> entry.keepAsIs()
         }
     }
 
     override fun postInitialize(context: Context) {
         if (internal.versionCode.get() != BuildConfig.VERSION_CODE) {
-            layout.cache.reset()
             context.cacheDir.deleteRecursively()
         }
         internal.versionCode.set(BuildConfig.VERSION_CODE)
@@ -16,11 +16,10 @@ import android.view.inputmethod.InputMethodManager
 import androidx.core.graphics.ColorUtils
 import androidx.core.view.WindowInsetsControllerCompat
 import com.google.android.material.color.DynamicColors
+import inc.flide.vim8.ime.InputMethodActions
 import inc.flide.vim8.ime.KeyboardTheme
 import inc.flide.vim8.ime.KeyboardTheme.Companion.getInstance
-import inc.flide.vim8.ime.LayoutLoader
-import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
-import inc.flide.vim8.ime.layout.safeLoadKeyboardData
+import inc.flide.vim8.ime.layout.LayoutLoadingService
 import inc.flide.vim8.ime.nlp.BreakIteratorGroup
 import inc.flide.vim8.ime.services.ClipboardManagerService
 import inc.flide.vim8.ime.services.ClipboardManagerService.ClipboardHistoryListener
@@ -33,7 +32,10 @@ import inc.flide.vim8.views.ShiftButtonView
 import inc.flide.vim8.views.SymbolKeypadView
 import inc.flide.vim8.views.mainkeyboard.MainKeyboardView
 
-class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
+class MainInputMethodService :
+    InputMethodService(),
+    ClipboardHistoryListener,
+    InputMethodActions {
     private val prefs by appPreferenceModel()
     private var ctrlButtonViews = mutableListOf<CtrlButtonView>()
     private val shiftButtonViews = mutableListOf<ShiftButtonView>()
@@ -48,26 +50,26 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
     private lateinit var selectionKeypadView: SelectionKeypadView
     private lateinit var symbolKeypadView: SymbolKeypadView
     private lateinit var breakIteratorGroup: BreakIteratorGroup
-    private lateinit var layoutLoader: LayoutLoader
+    private lateinit var layoutLoadingService: LayoutLoadingService
 
-    var isPassword = false
+    override var isPassword = false
         private set
-    var ctrlState = false
+    override var ctrlState = false
         private set
-    val ctrlFlag: Int
+    override val ctrlFlag: Int
         get() = if (!ctrlState) {
             0
         } else {
             KeyEvent.META_CTRL_MASK
         }
-    var shiftState = State.OFF
+    override var shiftState = State.OFF
         set(value) {
             field = value
             updateShiftButton()
         }
-    val shiftLockFlag: Int
+    override val shiftLockFlag: Int
         get() = if (shiftState == State.ON) KeyEvent.META_SHIFT_ON else 0
-    val capsLockFlag: Int
+    override val capsLockFlag: Int
         get() = if (shiftState == State.ENGAGED) KeyEvent.META_CAPS_LOCK_ON else 0
     private lateinit var keyboardTheme: KeyboardTheme
 
@@ -83,7 +85,8 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
 
     override fun onCreate() {
         super.onCreate()
-        layoutLoader = applicationContext.layoutLoader().value
+        layoutLoadingService = applicationContext.layoutLoadingService().value
+        layoutLoadingService.prefetch(prefs.layout.current.get())
         breakIteratorGroup = BreakIteratorGroup(applicationContext)
         DynamicColors.applyToActivitiesIfAvailable(application)
         clipboardManagerService = ClipboardManagerService(applicationContext)
@@ -138,7 +141,8 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
      * 13. InputMethodService stops
      */
     override fun onCreateInputView(): View {
-        MainKeypadActionListener.rebuildKeyboardData(safeLoadKeyboardData(layoutLoader, this))
+        // The keyboard shows the last published layout until the current one is loaded.
+        layoutLoadingService.loadCurrent()
         numberKeypadView = NumberKeypadView(this)
         selectionKeypadView = SelectionKeypadView(this)
         clipboardKeypadView = ClipboardKeypadView(this)
@@ -221,11 +225,11 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         ctrlState = prefs.keyboard.behavior.cursor.moveByWord.get()
     }
 
-    fun sendText(text: String?) {
+    override fun sendText(text: String?) {
         inputConnection?.commitText(text, 1)
     }
 
-    fun sendDownKeyEvent(keyEventCode: Int, flags: Int) {
+    override fun sendDownKeyEvent(keyEventCode: Int, flags: Int) {
         inputConnection?.sendKeyEvent(
             KeyEvent(
                 SystemClock.uptimeMillis(),
@@ -238,7 +242,7 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         )
     }
 
-    fun sendUpKeyEvent(keyEventCode: Int, flags: Int) {
+    override fun sendUpKeyEvent(keyEventCode: Int, flags: Int) {
         inputConnection?.sendKeyEvent(
             KeyEvent(
                 SystemClock.uptimeMillis(),
@@ -251,13 +255,13 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         )
     }
 
-    fun sendDownAndUpKeyEvent(keyEventCode: Int, flags: Int) {
+    override fun sendDownAndUpKeyEvent(keyEventCode: Int, flags: Int) {
         sendDownKeyEvent(keyEventCode, flags)
         sendUpKeyEvent(keyEventCode, flags)
     }
 
     @Suppress("DEPRECATION")
-    fun switchToExternalEmoticonKeyboard() {
+    override fun switchToExternalEmoticonKeyboard() {
         val keyboardId = selectedEmoticonKeyboardId
         if (keyboardId.isEmpty()) {
             if (ATLEAST_API28_P) {
@@ -284,18 +288,18 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
                 .find { it.id == emoticonKeyboardId }?.let { emoticonKeyboardId }.orEmpty()
         }
 
-    fun sendKey(keyEventCode: Int, flags: Int) {
+    override fun sendKey(keyEventCode: Int, flags: Int) {
         sendDownAndUpKeyEvent(keyEventCode, flags)
     }
 
-    fun resetShiftState() {
+    override fun resetShiftState() {
         if (shiftState == State.ON) {
             shiftState = State.OFF
             updateShiftButton()
         }
     }
 
-    fun delete() {
+    override fun delete() {
         inputConnection?.let {
             if (TextUtils.isEmpty(it.getSelectedText(0))) {
                 val length =
@@ -313,7 +317,7 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         }
     }
 
-    fun switchAnchor() {
+    override fun switchAnchor() {
         inputConnection?.getExtractedText(
             ExtractedTextRequest(),
             InputConnection.GET_EXTRACTED_TEXT_MONITOR
@@ -324,44 +328,44 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         }
     }
 
-    fun switchToSelectionKeypad() {
+    override fun switchToSelectionKeypad() {
         setCurrentKeypadView(selectionKeypadView)
     }
 
-    fun switchToClipboardKeypad() {
+    override fun switchToClipboardKeypad() {
         clipboardKeypadView?.let { setCurrentKeypadView(it) }
     }
 
-    fun switchToSymbolsKeypad() {
+    override fun switchToSymbolsKeypad() {
         setCurrentKeypadView(symbolKeypadView)
     }
 
-    fun switchToMainKeypad() {
+    override fun switchToMainKeypad() {
         setCurrentKeypadView(mainKeyboardView)
         mainKeyboardView.setupClipboardButton()
     }
 
-    fun switchToNumberPad() {
+    override fun switchToNumberPad() {
         setCurrentKeypadView(numberKeypadView)
     }
 
-    fun cut() {
+    override fun cut() {
         inputConnection?.performContextMenuAction(android.R.id.cut)
     }
 
-    fun copy() {
+    override fun copy() {
         inputConnection?.performContextMenuAction(android.R.id.copy)
     }
 
-    fun paste() {
+    override fun paste() {
         inputConnection?.performContextMenuAction(android.R.id.paste)
     }
 
-    fun hideKeyboard() {
+    override fun hideKeyboard() {
         requestHideSelf(InputMethodManager.HIDE_NOT_ALWAYS)
     }
 
-    fun performShiftToggle() {
+    override fun performShiftToggle() {
         shiftState = when (shiftState) {
             State.OFF -> State.ON
             State.ON -> State.ENGAGED
@@ -370,12 +374,12 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
         updateShiftButton()
     }
 
-    fun performCtrlToggle() {
+    override fun performCtrlToggle() {
         ctrlState = !ctrlState
         updateCtrlButton()
     }
 
-    fun areCharactersCapitalized(): Boolean {
+    override fun areCharactersCapitalized(): Boolean {
         return shiftState != State.OFF
     }
 
@@ -401,7 +405,7 @@ class MainInputMethodService : InputMethodService(), ClipboardHistoryListener {
      * 1 IME_FLAG_FORCE_ASCII
      * |-------|-------|-------|-------|
      */
-    fun commitImeOptionsBasedEnter() {
+    override fun commitImeOptionsBasedEnter() {
         when (val imeAction = editorInfo.imeOptions and EditorInfo.IME_MASK_ACTION) {
             EditorInfo.IME_ACTION_GO,
             EditorInfo.IME_ACTION_SEARCH,
@@ -1,14 +1,21 @@
 package inc.flide.vim8
 
 import android.app.Application
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.ContextWrapper
 import androidx.appcompat.app.AppCompatDelegate
 import inc.flide.vim8.ime.KeyboardTheme
 import inc.flide.vim8.ime.YamlLayoutLoader
 import inc.flide.vim8.ime.layout.Cache
+import inc.flide.vim8.ime.layout.CustomLayoutIndex
+import inc.flide.vim8.ime.layout.LayoutLoadingService
+import inc.flide.vim8.ime.layout.LayoutManifest
+import inc.flide.vim8.ime.layout.LayoutMemoryCache
 import inc.flide.vim8.ime.layout.parsers.CborParser
-import inc.flide.vim8.ime.layout.parsers.YamlParser
+import inc.flide.vim8.ime.layout.parsers.FallbackCacheParser
+import inc.flide.vim8.ime.layout.parsers.FlatParser
+import inc.flide.vim8.ime.layout.parsers.StreamingYamlParser
 import inc.flide.vim8.lib.android.tryOrNull
 import inc.flide.vim8.theme.ThemeMode
 import java.lang.ref.WeakReference
@@ -18,9 +25,12 @@ private var vim8ApplicationReference = WeakReference<VIM8Application?>(null)
 class VIM8Application : Application() {
     private val prefs by appPreferenceModel()
 
-    private val layoutParser = YamlParser()
-    val cache = lazy { Cache(CborParser(), this) }
-    val layoutLoader = lazy { YamlLayoutLoader(layoutParser, cache.value, this) }
+    val cache = lazy { Cache(FallbackCacheParser(FlatParser(), CborParser()), this) }
+    val customLayoutIndex = lazy { CustomLayoutIndex(this) }
+    val layoutMemoryCache = lazy { LayoutMemoryCache() }
+    val layoutLoader = lazy { YamlLayoutLoader(StreamingYamlParser(), cache.value, this) }
+    val layoutManifest = lazy { LayoutManifest.load(this) }
+    val layoutLoadingService = lazy { LayoutLoadingService(layoutLoader.value, this) }
 
     override fun onCreate() {
         super.onCreate()
@@ -42,6 +52,20 @@ class VIM8Application : Application() {
             )
         }
     }
+
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        if (layoutMemoryCache.isInitialized()) {
+            layoutMemoryCache.value.onTrimMemory(level)
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN &&
+            cache.isInitialized() &&
+            layoutLoadingService.isInitialized()
+        ) {
+            // Cache hits only update their access times in memory.
+            layoutLoadingService.value.submit({ cache.value.persistAccessTimes() }) {}
+        }
+    }
 }
 
 private tailrec fun Context.vim8Application(): VIM8Application {
@@ -58,4 +82,8 @@ private tailrec fun Context.vim8Application(): VIM8Application {
 }
 
 fun Context.cache() = this.vim8Application().cache
+fun Context.customLayoutIndex() = this.vim8Application().customLayoutIndex
+fun Context.layoutMemoryCache() = this.vim8Application().layoutMemoryCache
 fun Context.layoutLoader() = this.vim8Application().layoutLoader
+fun Context.layoutManifest() = this.vim8Application().layoutManifest
+fun Context.layoutLoadingService() = this.vim8Application().layoutLoadingService
@@ -8,9 +8,9 @@ import arrow.core.None
 import arrow.core.some
 import inc.flide.vim8.R
 import inc.flide.vim8.appPreferenceModel
-import inc.flide.vim8.ime.LayoutLoader
 import inc.flide.vim8.ime.layout.AvailableLayouts
 import inc.flide.vim8.ime.layout.CustomLayout
+import inc.flide.vim8.ime.layout.LayoutLoadingService
 import inc.flide.vim8.ime.layout.loadKeyboardData
 import inc.flide.vim8.ime.layout.models.KeyboardData
 import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
@@ -20,7 +20,7 @@ import inc.flide.vim8.utils.DialogsHelper.showAlert
 abstract class LayoutFileSelector : PreferenceFragmentCompat() {
     protected val prefs by appPreferenceModel()
     protected var availableLayouts: AvailableLayouts? = null
-    protected var layoutLoader: LayoutLoader? = null
+    protected var layoutLoadingService: LayoutLoadingService? = null
     private val openContent = registerForActivityResult<Array<String>, Uri>(
         ActivityResultContracts.OpenDocument()
     ) { selectedCustomLayoutFile: Uri? -> callback(selectedCustomLayoutFile) }
@@ -42,30 +42,33 @@ abstract class LayoutFileSelector : PreferenceFragmentCompat() {
         if (isInHistory) {
             availableLayouts!!.updateKeyboardData(layout)
         } else {
-            layout.loadKeyboardData(layoutLoader!!, context)
-                .fold({ error: LayoutError ->
-                    val title = if (error is ExceptionWrapperError) {
-                        R.string.generic_error_text
-                    } else {
-                        R.string.yaml_error_title
-                    }
-                    (title to error.message).some()
-                }, { keyboardData: KeyboardData ->
-                    if (keyboardData.totalLayers == 0) {
-                        (R.string.yaml_error_title to "The layout requires at least one layer")
-                            .some()
-                    } else {
-                        None
-                    }
-                })
-                .onSome { (titleId, message) -> showAlert(context, titleId, message) }
-                .onNone {
-                    prefs.layout.current.set(layout)
-                    val history =
-                        listOf(selectedCustomLayoutFile.toString()) + currentHistory.toList()
+            val service = layoutLoadingService!!
+            service.submit({ layout.loadKeyboardData(service.layoutLoader, context) }) { result ->
+                result
+                    .fold({ error: LayoutError ->
+                        val title = if (error is ExceptionWrapperError) {
+                            R.string.generic_error_text
+                        } else {
+                            R.string.yaml_error_title
+                        }
+                        (title to error.message).some()
+                    }, { keyboardData: KeyboardData ->
+                        if (keyboardData.totalLayers == 0) {
+                            (R.string.yaml_error_title to "The layout requires at least one layer")
+                                .some()
+                        } else {
+                            None
+                        }
+                    })
+                    .onSome { (titleId, message) -> showAlert(context, titleId, message) }
+                    .onNone {
+                        prefs.layout.current.set(layout)
+                        val history =
+                            listOf(selectedCustomLayoutFile.toString()) + currentHistory.toList()
 
-                    layoutPrefs.custom.history.set(LinkedHashSet(history))
-                }
+                        layoutPrefs.custom.history.set(LinkedHashSet(history))
+                    }
+            }
         }
     }
 
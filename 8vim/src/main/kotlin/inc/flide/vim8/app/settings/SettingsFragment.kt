@@ -5,7 +5,7 @@ import androidx.appcompat.app.AppCompatDelegate
 import androidx.preference.Preference
 import inc.flide.vim8.R
 import inc.flide.vim8.ime.layout.AvailableLayouts
-import inc.flide.vim8.layoutLoader
+import inc.flide.vim8.layoutLoadingService
 import inc.flide.vim8.theme.ThemeMode
 import inc.flide.vim8.utils.DialogsHelper.createItemsChoice
 import inc.flide.vim8.utils.InputMethodUtils.listOtherKeyboard
@@ -14,8 +14,12 @@ class SettingsFragment : LayoutFileSelector() {
     override fun onCreatePreferences(savedInstanceState: Bundle?, rootKey: String?) {
         context?.let { context ->
             if (availableLayouts == null) {
-                layoutLoader = context.layoutLoader().value
-                availableLayouts = AvailableLayouts(layoutLoader!!, context)
+                layoutLoadingService = context.layoutLoadingService().value
+                availableLayouts = AvailableLayouts(
+                    layoutLoadingService!!,
+                    context,
+                    ::showLayoutsProgress
+                )
             }
         }
         setPreferencesFromResource(R.xml.preferences, rootKey)
@@ -23,6 +27,17 @@ class SettingsFragment : LayoutFileSelector() {
         setupPreferenceCallbacks()
     }
 
+    private fun showLayoutsProgress(loaded: Int, total: Int) {
+        if (!isAdded) {
+            return
+        }
+        findPreference<Preference>(prefs.layout.current.key)?.summary = if (loaded < total) {
+            getString(R.string.pref_select_keyboard_layout_loading, loaded, total)
+        } else {
+            getString(R.string.pref_select_keyboard_layout_summary)
+        }
+    }
+
     private fun setupPreferenceCallbacks() {
         val trailPrefs = prefs.keyboard.trail
         val preferenceTrailColor = findPreference<Preference>(trailPrefs.color.key)
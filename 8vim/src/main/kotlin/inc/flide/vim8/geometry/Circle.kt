@@ -1,13 +1,8 @@
 package inc.flide.vim8.geometry
 
 import android.graphics.PointF
-import inc.flide.vim8.ime.layout.models.Direction.Companion.baseQuadrant
 import inc.flide.vim8.ime.layout.models.FingerPosition
-import inc.flide.vim8.ime.layout.models.toFingerPosition
-import inc.flide.vim8.utils.GeometricUtilities
-import kotlin.math.atan2
-import kotlin.math.pow
-import kotlin.math.roundToInt
+import kotlin.math.abs
 
 class Circle {
     @JvmField
@@ -16,48 +11,80 @@ class Circle {
     @JvmField
     var radius: Float = 0f
 
-    private fun getPowerOfPoint(point: PointF): Double {
-        /*
-        If O is the centre of circle
-        Consider startingPoint point P not necessarily on the circumference of the circle.
-        If d = OP is the distance between P and the circle's center O,
-        then the power of the point P relative to the circle is
-        p=d^2-r^2.
-        */
-        val squaredDistanceBetweenPoints =
-            GeometricUtilities.getSquaredDistanceBetweenPoints(point, centre)
-        val radiusSquare = radius.toDouble().pow(2.0)
-        return squaredDistanceBetweenPoints - radiusSquare
-    }
+    /**
+     * Width, in pixels, of the band around the circumference inside which a finger keeps its
+     * previous inside/outside state.
+     */
+    @JvmField
+    var edgeHysteresis: Float = 0f
+
+    /**
+     * Fraction by which a finger may cross a sector border before it leaves its previous sector.
+     */
+    @JvmField
+    var sectorHysteresis: Float = 0f
+
+    fun isPointInsideCircle(point: PointF): Boolean = isPointInsideCircle(point.x, point.y)
 
-    fun isPointInsideCircle(point: PointF): Boolean {
-        return getPowerOfPoint(point) < 0
+    fun isPointInsideCircle(x: Float, y: Float): Boolean = isInside(x, y, radius)
+
+    private fun isInside(x: Float, y: Float, radius: Float): Boolean {
+        val dx = x - centre.x
+        val dy = y - centre.y
+        return dx * dx + dy * dy < radius * radius
     }
 
     /**
-     * Gets the angle of point p relative to the center
+     * Get the sector that point p is in
      */
-    private fun getAngleInRadiansOfPointWithRespectToCentreOfCircle(point: PointF): Double {
-        // Get difference of coordinates
-        val x = (point.x - centre.x).toDouble()
-        val y = (centre.y - point.y).toDouble()
-
-        // Calculate angle with special atan (calculates the correct angle in all quadrants)
-        var angle = atan2(y, x)
-        // Make all angles positive
-        if (angle < 0) {
-            angle += Math.PI * 2
+    fun getSectorOfPoint(p: PointF): FingerPosition = getSectorOfPoint(p.x, p.y)
+
+    fun getSectorOfPoint(x: Float, y: Float): FingerPosition {
+        // Screen coordinates grow downwards, sectors are laid out with y going up.
+        val dx = x - centre.x
+        val dy = centre.y - y
+        val absX = abs(dx)
+        val absY = abs(dy)
+        // On a diagonal the sector counter-clockwise from it wins.
+        val isHorizontal = absX > absY || (absX == absY && dx * dy <= 0)
+        return when {
+            isHorizontal && dx >= 0 -> FingerPosition.RIGHT
+            isHorizontal -> FingerPosition.LEFT
+            dy > 0 -> FingerPosition.TOP
+            else -> FingerPosition.BOTTOM
         }
-        return angle
     }
 
     /**
-     * Get the number of the sector that point p is in
+     * Classifies a point given the finger position it was previously classified as, so that
+     * jitter within [edgeHysteresis] of the circumference or within [sectorHysteresis] of a
+     * sector border does not produce a transition.
      */
-    fun getSectorOfPoint(p: PointF): FingerPosition {
-        val angleDouble = getAngleInRadiansOfPointWithRespectToCentreOfCircle(p)
-        val angleToSectorValue = angleDouble / (Math.PI / 2)
-        val quadrantCyclic = angleToSectorValue.roundToInt()
-        return baseQuadrant(quadrantCyclic).toFingerPosition()
+    fun getFingerPosition(x: Float, y: Float, previous: FingerPosition): FingerPosition {
+        val inside = when (previous) {
+            FingerPosition.INSIDE_CIRCLE -> isInside(x, y, radius + edgeHysteresis)
+            FingerPosition.TOP, FingerPosition.LEFT, FingerPosition.BOTTOM, FingerPosition.RIGHT ->
+                isInside(x, y, maxOf(radius - edgeHysteresis, 0f))
+
+            else -> isPointInsideCircle(x, y)
+        }
+        return when {
+            inside -> FingerPosition.INSIDE_CIRCLE
+            isStillInSector(x, y, previous) -> previous
+            else -> getSectorOfPoint(x, y)
+        }
+    }
+
+    private fun isStillInSector(x: Float, y: Float, sector: FingerPosition): Boolean {
+        val dx = x - centre.x
+        val dy = centre.y - y
+        val slack = 1 + sectorHysteresis
+        return when (sector) {
+            FingerPosition.RIGHT -> dx > 0 && abs(dy) <= dx * slack
+            FingerPosition.LEFT -> dx < 0 && abs(dy) <= -dx * slack
+            FingerPosition.TOP -> dy > 0 && abs(dx) <= dy * slack
+            FingerPosition.BOTTOM -> dy < 0 && abs(dx) <= -dy * slack
+            else -> false
+        }
     }
 }
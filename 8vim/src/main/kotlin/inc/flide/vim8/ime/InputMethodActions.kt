@@ -0,0 +1,39 @@
+package inc.flide.vim8.ime
+
+import inc.flide.vim8.MainInputMethodService
+
+/**
+ * What the keypad action listeners need from the input method, so that they can also run
+ * against something other than [MainInputMethodService].
+ */
+interface InputMethodActions {
+    val isPassword: Boolean
+    val ctrlState: Boolean
+    val ctrlFlag: Int
+    var shiftState: MainInputMethodService.State
+    val shiftLockFlag: Int
+    val capsLockFlag: Int
+
+    fun sendText(text: String?)
+    fun sendDownKeyEvent(keyEventCode: Int, flags: Int)
+    fun sendUpKeyEvent(keyEventCode: Int, flags: Int)
+    fun sendDownAndUpKeyEvent(keyEventCode: Int, flags: Int)
+    fun sendKey(keyEventCode: Int, flags: Int)
+    fun resetShiftState()
+    fun delete()
+    fun cut()
+    fun copy()
+    fun paste()
+    fun commitImeOptionsBasedEnter()
+    fun areCharactersCapitalized(): Boolean
+    fun switchToExternalEmoticonKeyboard()
+    fun switchAnchor()
+    fun switchToSelectionKeypad()
+    fun switchToClipboardKeypad()
+    fun switchToSymbolsKeypad()
+    fun switchToMainKeypad()
+    fun switchToNumberPad()
+    fun hideKeyboard()
+    fun performShiftToggle()
+    fun performCtrlToggle()
+}
@@ -3,119 +3,123 @@ package inc.flide.vim8.ime
 import android.content.Context
 import android.util.Log
 import arrow.core.Either
-import arrow.core.firstOrNone
 import arrow.core.getOrElse
 import arrow.core.left
 import arrow.core.raise.catch
 import arrow.core.raise.either
+import arrow.core.recover
 import inc.flide.vim8.R
 import inc.flide.vim8.ime.layout.Cache
-import inc.flide.vim8.ime.layout.models.KeyboardAction
+import inc.flide.vim8.ime.layout.compiledLayoutAsset
 import inc.flide.vim8.ime.layout.models.KeyboardData
-import inc.flide.vim8.ime.layout.models.LayerLevel
-import inc.flide.vim8.ime.layout.models.MovementSequence
-import inc.flide.vim8.ime.layout.models.addAllToActionMap
 import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
 import inc.flide.vim8.ime.layout.models.error.LayoutError
-import inc.flide.vim8.ime.layout.models.info
-import inc.flide.vim8.ime.layout.models.lowerCaseCharacters
-import inc.flide.vim8.ime.layout.models.setLowerCaseCharacters
-import inc.flide.vim8.ime.layout.models.setUpperCaseCharacters
-import inc.flide.vim8.ime.layout.models.upperCaseCharacters
+import inc.flide.vim8.ime.layout.models.mergeWith
+import inc.flide.vim8.ime.layout.parsers.CborParser
 import inc.flide.vim8.ime.layout.parsers.LayoutParser
+import inc.flide.vim8.ime.layout.parsers.YamlParser
 import java.io.InputStream
 
+private const val TAG = "LayoutLoader"
+
 interface LayoutLoader {
     fun loadKeyboardData(inputStream: InputStream): Either<LayoutError, KeyboardData>
+
+    /**
+     * Loads a layout compiled at build time by `LayoutCompiler`.
+     */
+    fun loadCompiledKeyboardData(inputStream: InputStream): Either<LayoutError, KeyboardData>
 }
 
 class YamlLayoutLoader(
     private val layoutParser: LayoutParser,
     private val cache: Cache,
-    private val context: Context
+    private val context: Context,
+    private val compiledLayoutParser: LayoutParser = CborParser(),
+    private val embeddedLayoutParser: LayoutParser = YamlParser(trusted = true)
 ) :
     LayoutLoader {
     private var layoutIndependentKeyboardData: KeyboardData? = null
 
-    private fun validateNoConflictingActions(
-        mainKeyboardActionsMap: Map<MovementSequence, KeyboardAction>?,
-        newKeyboardActionsMap: Map<MovementSequence, KeyboardAction>
-    ): Boolean {
-        return mainKeyboardActionsMap.isNullOrEmpty() || newKeyboardActionsMap.keys.firstOrNone {
-            mainKeyboardActionsMap.containsKey(
-                it
-            )
-        }
-            .isNone()
-    }
-
     override fun loadKeyboardData(inputStream: InputStream): Either<LayoutError, KeyboardData> =
         either {
             val mainKeyboardData = getLayoutIndependentKeyboardData()
-            loadKeyboardData(mainKeyboardData, inputStream).bind()
+            loadKeyboardData(mainKeyboardData, layoutParser, inputStream).bind()
         }
 
+    override fun loadCompiledKeyboardData(
+        inputStream: InputStream
+    ): Either<LayoutError, KeyboardData> = either {
+        val mainKeyboardData = getLayoutIndependentKeyboardData()
+        loadKeyboardData(mainKeyboardData, compiledLayoutParser, inputStream).bind()
+    }
+
     private fun loadKeyboardData(
         keyboardData: KeyboardData,
+        parser: LayoutParser,
         inputStream: InputStream
     ): Either<LayoutError, KeyboardData> =
-        layoutParser.readKeyboardData(inputStream).map { tempKeyboardData ->
-            val tempKeyboardDataActionMap = tempKeyboardData.actionMap
-            KeyboardData.info
-                .set(keyboardData, tempKeyboardData.info)
-                .addAllToActionMap(
-                    if (validateNoConflictingActions(
-                            keyboardData.actionMap,
-                            tempKeyboardDataActionMap
-                        )
-                    ) {
-                        tempKeyboardDataActionMap
-                    } else {
-                        emptyMap()
-                    }
-                ).let {
-                    LayerLevel.VisibleLayers.fold(it) { acc, layer ->
-                        val lowerCase =
-                            tempKeyboardData.lowerCaseCharacters(layer).map { characterSets ->
-                                acc.lowerCaseCharacters(layer).getOrElse { characterSets }
-                            }.getOrNull().orEmpty()
-                        val upperCase =
-                            tempKeyboardData.upperCaseCharacters(layer).map { characterSets ->
-                                acc.upperCaseCharacters(layer).getOrElse { characterSets }
-                            }.getOrNull().orEmpty()
-                        acc.setLowerCaseCharacters(lowerCase, layer)
-                            .setUpperCaseCharacters(upperCase, layer)
-                    }
-                }
+        parser.readKeyboardData(inputStream).map { layoutKeyboardData ->
+            val merged = keyboardData.mergeWith(layoutKeyboardData)
+            if (merged.conflicts.isNotEmpty()) {
+                Log.w(
+                    TAG,
+                    "Dropped ${merged.conflicts.size} conflicting actions of " +
+                        "${layoutKeyboardData.info.name}: " +
+                        merged.conflicts.joinToString { it.movementSequence.toString() }
+                )
+            }
+            merged.keyboardData
         }
 
     private fun loadKeyboardData(
         keyboardData: KeyboardData,
-        resourceId: Int
+        parser: LayoutParser,
+        open: () -> InputStream
     ): Either<LayoutError, KeyboardData> {
         catch({
-            return context.resources.openRawResource(resourceId).use { inputStream ->
-                loadKeyboardData(keyboardData, inputStream)
+            return open().use { inputStream ->
+                loadKeyboardData(keyboardData, parser, inputStream)
             }
         }) { exception: Throwable ->
             return ExceptionWrapperError(exception = exception).left()
         }
     }
 
+    // Common layers come compiled from the assets, their YAML is only read when the build did not
+    // compile them, as is the case for the unit tests. Either way the build validated them.
+    private fun loadCommonKeyboardData(
+        keyboardData: KeyboardData,
+        name: String,
+        resourceId: Int
+    ): Either<LayoutError, KeyboardData> =
+        loadKeyboardData(keyboardData, compiledLayoutParser) {
+            context.assets.open(compiledLayoutAsset(name))
+        }.recover {
+            loadKeyboardData(keyboardData, embeddedLayoutParser) {
+                context.resources.openRawResource(resourceId)
+            }.bind()
+        }
+
+    // Layouts load concurrently, the common layers must only be parsed and cached once.
+    @Synchronized
     private fun getLayoutIndependentKeyboardData(): KeyboardData {
         if (layoutIndependentKeyboardData == null) {
             layoutIndependentKeyboardData = cache.load("common").getOrElse {
                 either {
-                    val sectorCircleButtonsKeyboard = loadKeyboardData(
+                    val sectorCircleButtonsKeyboard = loadCommonKeyboardData(
                         KeyboardData(),
+                        "sector_circle_buttons",
                         R.raw.sector_circle_buttons
                     ).bind()
-                    val dPadActionKeyboard = loadKeyboardData(
+                    val dPadActionKeyboard = loadCommonKeyboardData(
                         sectorCircleButtonsKeyboard,
+                        "d_pad_actions",
                         R.raw.d_pad_actions
                     ).bind()
-                    loadKeyboardData(
+                    loadCommonKeyboardData(
                         dPadActionKeyboard,
+                        "special_core_gestures",
                         R.raw.special_core_gestures
                     ).bind()
                 }
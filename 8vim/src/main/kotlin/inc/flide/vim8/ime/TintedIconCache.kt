@@ -0,0 +1,63 @@
+package inc.flide.vim8.ime
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import androidx.annotation.ColorInt
+import androidx.annotation.DrawableRes
+import androidx.vectordrawable.graphics.drawable.VectorDrawableCompat
+
+data class TintedIcon(
+    @DrawableRes val resourceId: Int,
+    @ColorInt val tint: Int,
+    val alpha: Int,
+    val size: Int
+)
+
+/**
+ * Icons already tinted and rasterised at their final size, so that drawing one is a single bitmap
+ * blit rather than inflating and tinting its vector drawable again.
+ */
+class TintedIconCache(private val rasterize: (TintedIcon) -> Bitmap?) {
+    private val icons = HashMap<TintedIcon, Bitmap>()
+
+    constructor(context: Context) : this({ icon -> rasterize(context, icon) })
+
+    fun get(icon: TintedIcon): Bitmap? =
+        icons[icon] ?: rasterize(icon)?.also { icons[icon] = it }
+
+    /**
+     * Drops the icons of any other tint, for when the theme colours change.
+     */
+    fun retainTint(@ColorInt tint: Int) {
+        removeIf { it.tint != tint }
+    }
+
+    fun clear() {
+        removeIf { true }
+    }
+
+    private fun removeIf(predicate: (TintedIcon) -> Boolean) {
+        val entries = icons.entries.iterator()
+        while (entries.hasNext()) {
+            val (icon, bitmap) = entries.next()
+            if (predicate(icon)) {
+                bitmap.recycle()
+                entries.remove()
+            }
+        }
+    }
+
+    companion object {
+        private fun rasterize(context: Context, icon: TintedIcon): Bitmap? {
+            val drawable = VectorDrawableCompat.create(context.resources, icon.resourceId, null)
+                ?: return null
+            val bitmap = Bitmap.createBitmap(icon.size, icon.size, Bitmap.Config.ARGB_8888)
+            drawable.setBounds(0, 0, icon.size, icon.size)
+            drawable.setTint(icon.tint)
+            drawable.alpha = icon.alpha
+            drawable.draw(Canvas(bitmap))
+            return bitmap
+        }
+    }
+}
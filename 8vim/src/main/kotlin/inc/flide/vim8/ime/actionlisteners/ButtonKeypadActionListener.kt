@@ -3,11 +3,12 @@ package inc.flide.vim8.ime.actionlisteners
 import android.view.View
 import com.hijamoya.keyboardview.KeyboardView
 import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.ime.InputMethodActions
 import inc.flide.vim8.ime.layout.models.CustomKeycode
 
 private const val NOT_A_KEY = -1
 
-class ButtonKeypadActionListener(mainInputMethodService: MainInputMethodService, view: View) :
+class ButtonKeypadActionListener(mainInputMethodService: InputMethodActions, view: View) :
     KeypadActionListener(mainInputMethodService, view), KeyboardView.OnKeyboardActionListener {
     override fun onKey(primaryCode: Int, keyCodes: IntArray) {
         when (primaryCode) {
@@ -3,10 +3,12 @@ package inc.flide.vim8.ime.actionlisteners
 import android.view.View
 import inc.flide.vim8.MainInputMethodService
 
-class ClipboardActionListener(mainInputMethodService: MainInputMethodService, view: View) :
-    KeypadActionListener(mainInputMethodService, view) {
+class ClipboardActionListener(
+    private val inputMethodService: MainInputMethodService,
+    view: View
+) : KeypadActionListener(inputMethodService, view) {
     val clipHistory: List<String>
-        get() = mainInputMethodService.clipboardManagerService.clipHistory
+        get() = inputMethodService.clipboardManagerService.clipHistory
 
     fun onClipSelected(selectedClip: String) {
         onText(selectedClip)
@@ -0,0 +1,33 @@
+package inc.flide.vim8.ime.actionlisteners
+
+import android.os.Handler
+import android.os.Looper
+
+/**
+ * Delivers the timer events of a gesture (long press initiation and continuation) on the same
+ * thread as its touch events, so the gesture state has a single owner.
+ */
+interface GestureScheduler {
+    fun postDelayed(runnable: Runnable, delayMillis: Long)
+
+    fun cancel(runnable: Runnable)
+
+    companion object {
+        /**
+         * Shared scheduler posting to the main looper, where touch events are dispatched.
+         */
+        val main: GestureScheduler by lazy { LooperGestureScheduler(Looper.getMainLooper()) }
+    }
+}
+
+class LooperGestureScheduler(looper: Looper) : GestureScheduler {
+    private val handler = Handler(looper)
+
+    override fun postDelayed(runnable: Runnable, delayMillis: Long) {
+        handler.postDelayed(runnable, delayMillis)
+    }
+
+    override fun cancel(runnable: Runnable) {
+        handler.removeCallbacks(runnable)
+    }
+}
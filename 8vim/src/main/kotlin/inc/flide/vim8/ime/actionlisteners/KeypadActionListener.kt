@@ -7,6 +7,7 @@ import android.view.KeyEvent
 import android.view.View
 import inc.flide.vim8.MainInputMethodService
 import inc.flide.vim8.appPreferenceModel
+import inc.flide.vim8.ime.InputMethodActions
 import inc.flide.vim8.ime.layout.models.CustomKeycode.Companion.KEY_CODE_TO_STRING_CODE_MAP
 import inc.flide.vim8.ime.layout.models.KeyboardAction
 import inc.flide.vim8.ime.layout.models.LayerLevel
@@ -14,7 +15,7 @@ import inc.flide.vim8.lib.android.AndroidVersion.ATLEAST_API29_Q
 
 @Suppress("DEPRECATION")
 abstract class KeypadActionListener(
-    protected val mainInputMethodService: MainInputMethodService,
+    protected val mainInputMethodService: InputMethodActions,
     protected val view: View
 ) {
     private val prefs by appPreferenceModel()
@@ -1,233 +1,198 @@
 package inc.flide.vim8.ime.actionlisteners
 
-import android.os.Handler
-import android.os.HandlerThread
 import android.view.View
-import arrow.core.None
 import arrow.core.Option
 import arrow.core.getOrElse
-import arrow.core.getOrNone
-import arrow.core.recover
-import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.ime.InputMethodActions
 import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.GestureAutomaton
 import inc.flide.vim8.ime.layout.models.KeyboardActionType
 import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.KeyboardDataSnapshot
 import inc.flide.vim8.ime.layout.models.LayerLevel
-import inc.flide.vim8.ime.layout.models.LayerLevel.Companion.MovementSequences
-import inc.flide.vim8.ime.layout.models.LayerLevel.Companion.VisibleLayers
-import inc.flide.vim8.ime.layout.models.MovementSequence
 import inc.flide.vim8.ime.layout.models.MovementSequenceType
-import inc.flide.vim8.ime.layout.models.findLayer
+import inc.flide.vim8.ime.layout.models.PackedMovementSequence
 import inc.flide.vim8.ime.layout.models.lowerCaseCharacters
+import inc.flide.vim8.ime.layout.models.packedMovementSequence
 import inc.flide.vim8.ime.layout.models.upperCaseCharacters
-import inc.flide.vim8.ime.layout.models.yaml.ExtraLayer
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicReference
 
-class MainKeypadActionListener(inputMethodService: MainInputMethodService, view: View) :
-    KeypadActionListener(inputMethodService, view) {
+class MainKeypadActionListener @JvmOverloads constructor(
+    inputMethodService: InputMethodActions,
+    view: View,
+    private val gestureScheduler: GestureScheduler = GestureScheduler.main
+) : KeypadActionListener(inputMethodService, view) {
     companion object {
         private const val DELAY_MILLIS_LONG_PRESS_CONTINUATION = 50
         private const val DELAY_MILLIS_LONG_PRESS_INITIATION = 500
-        private const val FULL_ROTATION_STEPS = 7
-        private val extraLayerMovementSequences = ExtraLayer.MOVEMENT_SEQUENCES.values.toSet()
-        private val ROTATION_MOVEMENT_SEQUENCES = setOf(
-            listOf(
-                FingerPosition.BOTTOM,
-                FingerPosition.LEFT,
-                FingerPosition.TOP,
-                FingerPosition.RIGHT,
-                FingerPosition.BOTTOM,
-                FingerPosition.LEFT
-            ),
-            listOf(
-                FingerPosition.BOTTOM,
-                FingerPosition.RIGHT,
-                FingerPosition.TOP,
-                FingerPosition.LEFT,
-                FingerPosition.BOTTOM,
-                FingerPosition.RIGHT
-            ),
-            listOf(
-                FingerPosition.LEFT,
-                FingerPosition.TOP,
-                FingerPosition.RIGHT,
-                FingerPosition.BOTTOM,
-                FingerPosition.LEFT,
-                FingerPosition.TOP
-            ),
-            listOf(
-                FingerPosition.LEFT,
-                FingerPosition.BOTTOM,
-                FingerPosition.RIGHT,
-                FingerPosition.TOP,
-                FingerPosition.LEFT,
-                FingerPosition.BOTTOM
-            ),
-            listOf(
-                FingerPosition.TOP,
-                FingerPosition.LEFT,
-                FingerPosition.BOTTOM,
-                FingerPosition.RIGHT,
-                FingerPosition.TOP,
-                FingerPosition.LEFT
-            ),
-            listOf(
-                FingerPosition.TOP,
-                FingerPosition.RIGHT,
-                FingerPosition.BOTTOM,
-                FingerPosition.LEFT,
-                FingerPosition.TOP,
-                FingerPosition.RIGHT
-            ),
-            listOf(
-                FingerPosition.RIGHT,
-                FingerPosition.TOP,
-                FingerPosition.LEFT,
-                FingerPosition.BOTTOM,
-                FingerPosition.RIGHT,
-                FingerPosition.TOP
-            ),
-            listOf(
-                FingerPosition.RIGHT,
-                FingerPosition.BOTTOM,
-                FingerPosition.LEFT,
-                FingerPosition.TOP,
-                FingerPosition.RIGHT,
-                FingerPosition.BOTTOM
-            )
-        )
-        private var keyboardData: Option<KeyboardData> = None
+        private val LAYER_LEVELS = LayerLevel.values()
+
+        // Every extra layer prefix is a prefix of the deepest one.
+        private val LAYER_MOVEMENT_SEQUENCE = LayerLevel.SIXTH.packedMovementSequence
+
+        // A rotation starts inside the circle, right after the movement sequence of the layer.
+        private val ROTATION_START_MOVEMENT_SEQUENCES = LAYER_LEVELS.map {
+            (it.packedMovementSequence + FingerPosition.INSIDE_CIRCLE).bits
+        }.toLongArray()
+        private val published = AtomicReference(KeyboardDataSnapshot())
+        private val onKeyboardDataChangedCallbacks: MutableList<Runnable> = CopyOnWriteArrayList()
+
+        /**
+         * The latest published layout.
+         */
+        @JvmStatic
+        val snapshot: KeyboardDataSnapshot
+            get() = published.get()
 
+        /**
+         * Publishes a layout. Gestures in progress keep the layout they started with, and the
+         * new one is used from the next gesture on.
+         */
         @JvmStatic
         fun rebuildKeyboardData(keyboardDataOption: KeyboardData?) {
-            keyboardData = Option.fromNullable(keyboardDataOption)
+            // Compile the gesture automaton now rather than on the first touch event.
+            keyboardDataOption?.gestureAutomaton
+            val keyboardData = Option.fromNullable(keyboardDataOption)
+            published.updateAndGet { it.next(keyboardData) }
+            onKeyboardDataChangedCallbacks.forEach { it.run() }
+        }
+
+        /**
+         * Registers [callback] to be run, on the publishing thread, whenever a layout is
+         * published. It is kept until [removeOnKeyboardDataChanged] is called with it.
+         */
+        @JvmStatic
+        fun onKeyboardDataChanged(callback: Runnable) {
+            onKeyboardDataChangedCallbacks.add(callback)
+        }
+
+        @JvmStatic
+        fun removeOnKeyboardDataChanged(callback: Runnable) {
+            onKeyboardDataChangedCallbacks.remove(callback)
         }
     }
 
-    private val movementSequence: MutableList<FingerPosition> = arrayListOf()
-    private lateinit var longPressHandler: Handler
+    private var pinnedSnapshot = KeyboardDataSnapshot()
+    private var movementSequence = PackedMovementSequence.EMPTY
     private var currentFingerPosition: FingerPosition
+    private var gestureAutomaton: GestureAutomaton? = null
+    private var gestureState = GestureAutomaton.DEAD_STATE
+    private var noTouchGestureState = GestureAutomaton.DEAD_STATE
+    private var totalLayers = 0
+    private var layerMovementSequenceMatch = 0
+    private var currentLayer = LayerLevel.FIRST
+    private val rotationDetector = RotationDetector()
+    private var rotationStartMovementSequence = PackedMovementSequence.EMPTY
     var currentLetter: String? = null
         private set
     private var isLongPressCallbackSet = false
     private var currentMovementSequenceType = MovementSequenceType.NO_MOVEMENT
     private val longPressRunnable: Runnable = object : Runnable {
         override fun run() {
-            val movementSequenceAugmented: MutableList<FingerPosition> = ArrayList(movementSequence)
-            movementSequenceAugmented.add(FingerPosition.LONG_PRESS)
-            processMovementSequence(movementSequenceAugmented)
-            longPressHandler.postDelayed(this, DELAY_MILLIS_LONG_PRESS_CONTINUATION.toLong())
+            processMovementSequence(FingerPosition.LONG_PRESS)
+            gestureScheduler.postDelayed(this, DELAY_MILLIS_LONG_PRESS_CONTINUATION.toLong())
         }
     }
 
     init {
         currentFingerPosition = FingerPosition.NO_TOUCH
-        val longPressHandlerThread = HandlerThread("LongPressHandlerThread")
-        longPressHandlerThread.start()
-        longPressHandler = Handler(longPressHandlerThread.looper, null)
     }
 
+    /**
+     * The layout shown: the one of the gesture in progress, the latest published one otherwise.
+     */
+    val keyboardDataSnapshot: KeyboardDataSnapshot
+        get() = if (currentMovementSequenceType == MovementSequenceType.NO_MOVEMENT) {
+            snapshot
+        } else {
+            pinnedSnapshot
+        }
+
     fun getLowerCaseCharacters(layer: LayerLevel): String {
-        return keyboardData.flatMap { it.lowerCaseCharacters(layer) }.getOrElse { "" }
+        return keyboardDataSnapshot.keyboardData
+            .flatMap { it.lowerCaseCharacters(layer) }
+            .getOrElse { "" }
     }
 
     fun getUpperCaseCharacters(layer: LayerLevel): String {
-        return keyboardData.flatMap { it.upperCaseCharacters(layer) }.getOrElse { "" }
+        return keyboardDataSnapshot.keyboardData
+            .flatMap { it.upperCaseCharacters(layer) }
+            .getOrElse { "" }
     }
 
-    override fun findLayer(): LayerLevel {
-        for (i in VisibleLayers.size - 1 downTo LayerLevel.SECOND.ordinal) {
-            val layerLevel = LayerLevel.values()[i + 1]
-            val extraLayerMovementSequence = MovementSequences[layerLevel]
-                ?: return LayerLevel.FIRST
-            if (movementSequence.size < extraLayerMovementSequence.size) {
-                continue
-            }
-            val startWith: MovementSequence =
-                movementSequence.subList(0, extraLayerMovementSequence.size)
-            if (keyboardData.isSome {
-                extraLayerMovementSequences.contains(startWith) &&
-                    layerLevel.ordinal <= it.totalLayers
-            }
-            ) {
-                return layerLevel
-            }
-        }
-        return keyboardData
-            .map { it.findLayer(movementSequence + FingerPosition.INSIDE_CIRCLE) }
-            .getOrElse { LayerLevel.FIRST }
-    }
+    override fun findLayer(): LayerLevel = currentLayer
 
-    private val isFullRotation: Boolean
-        get() {
-            val layer = findLayer()
-            var size = FULL_ROTATION_STEPS
-            var start = 1
-            var layerCondition = movementSequence[0] == FingerPosition.INSIDE_CIRCLE
-            if (layer !== LayerLevel.FIRST) {
-                MovementSequences.getOrNone(layer).onSome {
-                    size += it.size
-                    start += it.size
-                    layerCondition = extraLayerMovementSequences.contains(
-                        movementSequence.subList(0, it.size)
-                    )
-                }
-            }
-            return if (movementSequence.size == size && layerCondition) {
-                ROTATION_MOVEMENT_SEQUENCES.contains(
-                    movementSequence.subList(start, size)
-                )
-            } else {
-                false
-            }
+    /**
+     * Bitmask of the characters of the current layer still reachable by the current gesture,
+     * bit `i` standing for the `i`-th character of the layer. Empty while the finger is not
+     * outside the circle, when every character is still reachable.
+     */
+    val candidateMask: Int
+        get() = if (currentMovementSequenceType == MovementSequenceType.NO_MOVEMENT ||
+            currentFingerPosition == FingerPosition.INSIDE_CIRCLE
+        ) {
+            0
+        } else {
+            gestureAutomaton?.candidates(gestureState, currentLayer) ?: 0
         }
 
+    /**
+     * Signed number of full rotations of the current gesture, counter-clockwise being positive.
+     */
+    val rotationCount: Int
+        get() = rotationDetector.rotations
+
     fun movementStarted(fingerPosition: FingerPosition) {
         currentFingerPosition = fingerPosition
-        movementSequence.clear()
+        pinKeyboardData()
         currentLetter = null
         currentMovementSequenceType = MovementSequenceType.NEW_MOVEMENT
-        movementSequence.add(currentFingerPosition)
+        movementSequence = PackedMovementSequence.EMPTY + currentFingerPosition
+        syncGestureState()
+        armRotationDetector()
         initiateLongPressDetection()
     }
 
-    fun movementContinues(fingerPosition: FingerPosition) {
+    /**
+     * Returns whether the finger position changed, i.e. whether the decoded state may have changed.
+     */
+    fun movementContinues(fingerPosition: FingerPosition): Boolean {
         val lastKnownFingerPosition = currentFingerPosition
         currentFingerPosition = fingerPosition
         val isFingerPositionChanged = lastKnownFingerPosition !== currentFingerPosition
         if (isFingerPositionChanged) {
             interruptLongPress()
-            movementSequence.add(currentFingerPosition)
-            if (isFullRotation) {
-                var start = 2
-                var size = FULL_ROTATION_STEPS - 1
-                val layer = findLayer()
-                if (layer !== LayerLevel.FIRST) {
-                    MovementSequences.getOrNone(layer).onSome {
-                        start += it.size
-                        size += it.size
-                    }
-                }
-                movementSequence.subList(start, size).clear()
+            movementSequence += currentFingerPosition
+            advanceGestureState(currentFingerPosition)
+            if (rotationDetector.advance(currentFingerPosition)) {
+                // Keep the last two sectors only, so the gesture continues as if it had just
+                // left the circle.
+                movementSequence = rotationStartMovementSequence +
+                    rotationDetector.sectorAt(1) +
+                    rotationDetector.sectorAt(0)
+                syncGestureState()
                 mainInputMethodService.performShiftToggle()
             }
             if (currentFingerPosition == FingerPosition.INSIDE_CIRCLE &&
-                keyboardData.isSome { it.actionMap.containsKey(movementSequence) }
+                gestureAutomaton?.action(gestureState) != null
             ) {
-                processMovementSequence(movementSequence)
-                movementSequence.clear()
+                processMovementSequence()
                 currentLetter = null
                 currentMovementSequenceType = MovementSequenceType.CONTINUED_MOVEMENT
-                movementSequence.add(currentFingerPosition)
+                movementSequence = PackedMovementSequence.EMPTY + currentFingerPosition
+                syncGestureState()
             } else if (currentFingerPosition == FingerPosition.INSIDE_CIRCLE) {
                 val layer = findLayer()
-                var layerSize = 0
-                val extraLayerMovementSequences = if (layer !== LayerLevel.FIRST) {
-                    MovementSequences.getOrNone(layer)
-                        .onSome {
-                            layerSize = it.size + 1
-                        }.getOrElse { listOf() }
+                val layerMovementSequence = if (layer !== LayerLevel.FIRST) {
+                    layer.packedMovementSequence
                 } else {
-                    listOf()
+                    PackedMovementSequence.EMPTY
+                }
+                val layerSize = if (layer !== LayerLevel.FIRST) {
+                    layerMovementSequence.size + 1
+                } else {
+                    0
                 }
                 val defaultLayerCondition = (
                     layer == LayerLevel.FIRST &&
@@ -236,73 +201,150 @@ class MainKeypadActionListener(inputMethodService: MainInputMethodService, view:
                 val extraLayerCondition =
                     layer !== LayerLevel.FIRST && movementSequence.size > layerSize
                 if (defaultLayerCondition || extraLayerCondition) {
-                    movementSequence.clear()
                     currentLetter = null
                     currentMovementSequenceType = MovementSequenceType.NEW_MOVEMENT
-                    movementSequence.addAll(extraLayerMovementSequences)
-                    movementSequence.add(currentFingerPosition)
+                    movementSequence = layerMovementSequence + currentFingerPosition
+                    syncGestureState()
                 }
             } else {
-                val modifiedMovementSequence =
-                    movementSequence + FingerPosition.INSIDE_CIRCLE
-                keyboardData
-                    .flatMap { it.actionMap.getOrNone(modifiedMovementSequence) }
-                    .onSome {
-                        currentLetter = if (areCharactersCapitalized()) it.capsLockText else it.text
-                    }
+                gestureAutomaton?.let {
+                    it.action(it.next(gestureState, FingerPosition.INSIDE_CIRCLE))
+                }?.let {
+                    currentLetter = if (areCharactersCapitalized()) it.capsLockText else it.text
+                }
             }
+            armRotationDetector()
         } else if (!isLongPressCallbackSet) {
             initiateLongPressDetection()
         }
+        return isFingerPositionChanged
     }
 
     fun movementEnds() {
         interruptLongPress()
         currentFingerPosition = FingerPosition.NO_TOUCH
-        movementSequence.add(currentFingerPosition)
-        processMovementSequence(movementSequence)
-        movementSequence.clear()
+        movementSequence += currentFingerPosition
+        advanceGestureState(currentFingerPosition)
+        processMovementSequence()
+        movementSequence = PackedMovementSequence.EMPTY
         currentLetter = null
         currentMovementSequenceType = MovementSequenceType.NO_MOVEMENT
+        rotationDetector.disarm()
+        pinKeyboardData()
+        syncGestureState()
     }
 
     fun movementCanceled() {
-        longPressHandler.removeCallbacks(longPressRunnable)
+        gestureScheduler.cancel(longPressRunnable)
         isLongPressCallbackSet = false
-        movementSequence.clear()
+        movementSequence = PackedMovementSequence.EMPTY
         currentLetter = null
         currentMovementSequenceType = MovementSequenceType.NO_MOVEMENT
+        rotationDetector.disarm()
+        pinKeyboardData()
+        syncGestureState()
     }
 
     private fun initiateLongPressDetection() {
         isLongPressCallbackSet = true
-        longPressHandler.postDelayed(longPressRunnable, DELAY_MILLIS_LONG_PRESS_INITIATION.toLong())
+        gestureScheduler.postDelayed(longPressRunnable, DELAY_MILLIS_LONG_PRESS_INITIATION.toLong())
     }
 
     private fun interruptLongPress() {
-        longPressHandler.removeCallbacks(longPressRunnable)
-        processMovementSequence(movementSequence + FingerPosition.LONG_PRESS_END)
+        gestureScheduler.cancel(longPressRunnable)
+        processMovementSequence(FingerPosition.LONG_PRESS_END)
         isLongPressCallbackSet = false
     }
 
-    private fun processMovementSequence(movementSequence: MovementSequence) {
-        val actionMap = keyboardData.getOrNull()?.actionMap ?: return
-        actionMap
-            .getOrNone(movementSequence)
-            .recover {
-                actionMap
-                    .getOrNone(
-                        listOf(FingerPosition.NO_TOUCH) + movementSequence
-                    )
-                    .filter { currentMovementSequenceType == MovementSequenceType.NEW_MOVEMENT }
-                    .bind()
-            }
-            .onSome {
-                if (it.keyboardActionType == KeyboardActionType.INPUT_TEXT) {
-                    handleInputText(it)
-                } else {
-                    handleInputKey(it.keyEventCode, it.keyFlags)
-                }
+    private fun armRotationDetector() {
+        if (movementSequence.bits == ROTATION_START_MOVEMENT_SEQUENCES[currentLayer.ordinal]) {
+            rotationStartMovementSequence = movementSequence
+            rotationDetector.arm()
+        }
+    }
+
+    private fun pinKeyboardData() {
+        val latest = snapshot
+        if (latest.version != pinnedSnapshot.version) {
+            pinnedSnapshot = latest
+            val currentKeyboardData = latest.keyboardData.getOrNull()
+            gestureAutomaton = currentKeyboardData?.gestureAutomaton
+            totalLayers = currentKeyboardData?.totalLayers ?: 0
+        }
+    }
+
+    private fun syncGestureState() {
+        gestureState = GestureAutomaton.DEAD_STATE
+        noTouchGestureState = GestureAutomaton.DEAD_STATE
+        gestureAutomaton?.let {
+            gestureState = it.walk(GestureAutomaton.START_STATE, movementSequence)
+            noTouchGestureState = it.walk(
+                it.next(GestureAutomaton.START_STATE, FingerPosition.NO_TOUCH),
+                movementSequence
+            )
+        }
+        val maxMatch = minOf(movementSequence.size, LAYER_MOVEMENT_SEQUENCE.size)
+        layerMovementSequenceMatch = 0
+        while (layerMovementSequenceMatch < maxMatch &&
+            movementSequence[layerMovementSequenceMatch] ==
+            LAYER_MOVEMENT_SEQUENCE[layerMovementSequenceMatch]
+        ) {
+            layerMovementSequenceMatch++
+        }
+        updateLayer()
+    }
+
+    private fun advanceGestureState(fingerPosition: FingerPosition) {
+        gestureAutomaton?.let {
+            gestureState = it.next(gestureState, fingerPosition)
+            noTouchGestureState = it.next(noTouchGestureState, fingerPosition)
+        }
+        if (layerMovementSequenceMatch == movementSequence.size - 1 &&
+            layerMovementSequenceMatch < LAYER_MOVEMENT_SEQUENCE.size &&
+            LAYER_MOVEMENT_SEQUENCE[layerMovementSequenceMatch] == fingerPosition
+        ) {
+            layerMovementSequenceMatch++
+        }
+        updateLayer()
+    }
+
+    private fun updateLayer() {
+        // The movement sequence of an extra layer is one position longer than its ordinal. Only
+        // the third layer and up are found by prefix, the second one by its actions.
+        val extraLayer = minOf(layerMovementSequenceMatch - 1, totalLayers)
+        currentLayer = if (extraLayer >= LayerLevel.THIRD.ordinal) {
+            LAYER_LEVELS[extraLayer]
+        } else {
+            gestureAutomaton
+                ?.let { it.layer(it.next(gestureState, FingerPosition.INSIDE_CIRCLE)) }
+                ?: LayerLevel.FIRST
+        }
+    }
+
+    private fun processMovementSequence(fingerPosition: FingerPosition) {
+        gestureAutomaton?.let {
+            processMovementSequence(
+                it.next(gestureState, fingerPosition),
+                it.next(noTouchGestureState, fingerPosition)
+            )
+        }
+    }
+
+    private fun processMovementSequence() {
+        processMovementSequence(gestureState, noTouchGestureState)
+    }
+
+    private fun processMovementSequence(state: Int, noTouchState: Int) {
+        val automaton = gestureAutomaton ?: return
+        val action = automaton.action(state)
+            ?: automaton.action(noTouchState)
+                .takeIf { currentMovementSequenceType == MovementSequenceType.NEW_MOVEMENT }
+        action?.let {
+            if (it.keyboardActionType == KeyboardActionType.INPUT_TEXT) {
+                handleInputText(it)
+            } else {
+                handleInputKey(it.keyEventCode, it.keyFlags)
             }
+        }
     }
 }
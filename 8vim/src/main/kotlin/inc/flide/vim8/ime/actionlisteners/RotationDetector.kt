@@ -0,0 +1,99 @@
+package inc.flide.vim8.ime.actionlisteners
+
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import kotlin.math.abs
+import kotlin.math.sign
+
+private const val RING_SIZE = 4
+private const val RING_MASK = RING_SIZE - 1
+private const val NUMBER_OF_DIRECTIONS = 4
+private const val FIRST_ROTATION_STEPS = 5
+private const val ROTATION_STEPS = 4
+private const val NO_SECTOR = -1
+
+/**
+ * Detects loops around the circle from the sectors a finger goes through.
+ *
+ * Once [arm]ed, every sector transition is folded into a winding counter: a step to the adjacent
+ * counter-clockwise sector adds one, a step to the adjacent clockwise sector removes one. Going
+ * back inside the circle, jumping to the opposite sector or turning around disarms the detector.
+ * The first rotation completes after five steps (one and a quarter loop), every following one
+ * after four more, as the rotations decoded from the movement sequence always did.
+ */
+class RotationDetector {
+    private val sectors = IntArray(RING_SIZE)
+    private var head = 0
+    private var steps = 0
+
+    var isArmed = false
+        private set
+
+    /**
+     * Signed number of completed rotations since the detector was armed, counter-clockwise
+     * being positive. Kept once the detector disarms, until it is armed again.
+     */
+    val rotations: Int
+        get() = steps.sign * ((abs(steps) - 1) / ROTATION_STEPS)
+
+    fun arm() {
+        isArmed = true
+        steps = 0
+        sectors.fill(NO_SECTOR)
+    }
+
+    fun disarm() {
+        isArmed = false
+    }
+
+    /**
+     * Folds the next finger position in and returns whether it completed a rotation.
+     */
+    fun advance(fingerPosition: FingerPosition): Boolean {
+        if (!isArmed) {
+            return false
+        }
+        val sector = directionOf(fingerPosition)
+        val previous = sectors[head]
+        if (sector == NO_SECTOR) {
+            disarm()
+            return false
+        }
+        head = (head + 1) and RING_MASK
+        sectors[head] = sector
+        if (previous == NO_SECTOR) {
+            return false
+        }
+        val step = when ((sector - previous + NUMBER_OF_DIRECTIONS) % NUMBER_OF_DIRECTIONS) {
+            1 -> 1
+            NUMBER_OF_DIRECTIONS - 1 -> -1
+            else -> 0
+        }
+        if (step == 0 || step == -steps.sign) {
+            disarm()
+            return false
+        }
+        steps += step
+        val absSteps = abs(steps)
+        return absSteps >= FIRST_ROTATION_STEPS &&
+            (absSteps - FIRST_ROTATION_STEPS) % ROTATION_STEPS == 0
+    }
+
+    /**
+     * Returns the sector [age] transitions ago, zero being the latest one.
+     */
+    fun sectorAt(age: Int): FingerPosition = when (sectors[(head - age) and RING_MASK]) {
+        0 -> FingerPosition.RIGHT
+        1 -> FingerPosition.TOP
+        2 -> FingerPosition.LEFT
+        3 -> FingerPosition.BOTTOM
+        else -> FingerPosition.NO_TOUCH
+    }
+
+    private fun directionOf(fingerPosition: FingerPosition): Int = when (fingerPosition) {
+        FingerPosition.RIGHT -> 0
+        FingerPosition.TOP -> 1
+        FingerPosition.LEFT -> 2
+        FingerPosition.BOTTOM -> 3
+        else -> NO_SECTOR
+    }
+}
@@ -1,39 +1,56 @@
 package inc.flide.vim8.ime.layout
 
 import android.content.Context
+import arrow.core.Either
+import arrow.core.None
+import arrow.core.Option
 import arrow.core.elementAtOrNone
 import arrow.core.firstOrNone
-import arrow.core.getOrNone
-import arrow.core.recover
 import inc.flide.vim8.AppPrefs
 import inc.flide.vim8.appPreferenceModel
 import inc.flide.vim8.ime.LayoutLoader
-import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import java.util.concurrent.TimeoutException
 
-class AvailableLayouts(private val layoutLoader: LayoutLoader, private val context: Context) {
+/**
+ * The layouts the user can choose from: the embedded ones, followed by those of the custom layout
+ * history which load, in the order of the history.
+ *
+ * The custom layouts are loaded in the background, [onProgress] being called with the number of
+ * them loaded so far and their total. Those which do not load are removed from the history, but
+ * those which only time out are kept there and listed once they load.
+ */
+class AvailableLayouts(
+    private val layoutLoadingService: LayoutLoadingService,
+    private val context: Context,
+    private val onProgress: (Int, Int) -> Unit = { _, _ -> }
+) {
     private val prefs: AppPrefs by appPreferenceModel()
+    private val layoutLoader: LayoutLoader
+        get() = layoutLoadingService.layoutLoader
     private val defaultIndex: Int
     private val embeddedLayoutsSize: Int
     private val layoutsWithKeyboardData: MutableMap<Layout<*>, String> = linkedMapOf()
+    private val pendingUris: MutableSet<String> = linkedSetOf()
     val displayNames: List<String>
         get() = layoutsWithKeyboardData.values.toList()
     var index = -1
         private set
 
     init {
-        val embeddedLayoutsWithName = embeddedLayouts(layoutLoader, context)
+        val embeddedLayoutsWithName = embeddedLayouts(context)
         embeddedLayoutsSize = embeddedLayoutsWithName.size
         layoutsWithKeyboardData.putAll(embeddedLayoutsWithName)
         defaultIndex =
             layoutsWithKeyboardData.keys.indexOf(prefs.layout.current.default as EmbeddedLayout)
-        reloadCustomLayouts()
+        // The current layout may be a custom one which is not loaded yet.
+        index = layoutsWithKeyboardData.keys.indexOf(prefs.layout.current.get())
+        loadCustomLayouts(prefs.layout.custom.history.get())
 
-        prefs.layout.custom.history.observe {
-            if (it.size > layoutsWithKeyboardData.size - embeddedLayoutsSize) {
-                reloadCustomLayouts()
-                MainKeypadActionListener.rebuildKeyboardData(
-                    prefs.layout.current.get().loadKeyboardData(layoutLoader, context).getOrNull()
-                )
+        prefs.layout.custom.history.observe { uris ->
+            if (uris.size > layoutsWithKeyboardData.size - embeddedLayoutsSize) {
+                loadCustomLayouts(uris) {
+                    layoutLoadingService.load(prefs.layout.current.get())
+                }
             }
         }
     }
@@ -53,74 +70,111 @@ class AvailableLayouts(private val layoutLoader: LayoutLoader, private val conte
         findIndex()
     }
 
-    private fun reloadCustomLayouts() {
-        listCustomLayoutHistory()
-        findIndex()
-    }
-
     fun updateKeyboardData(layout: Layout<*>): Boolean {
-        return layoutsWithKeyboardData
-            .getOrNone(layout)
-            .flatMap { layout.loadKeyboardData(layoutLoader, context).getOrNone() }
-            .onSome {
-                prefs.layout.current.set(layout)
-                MainKeypadActionListener.rebuildKeyboardData(it)
+        val isAvailable = layoutsWithKeyboardData.containsKey(layout)
+        if (isAvailable) {
+            layoutLoadingService.load(layout) { keyboardData ->
+                keyboardData.onSome { prefs.layout.current.set(layout) }
             }
-            .isSome()
+        }
+        return isAvailable
     }
 
     fun selectLayout(which: Int) {
         layoutsWithKeyboardData.keys.elementAtOrNone(which)
             .onSome { layout ->
-                layout
-                    .loadKeyboardData(layoutLoader, context)
-                    .getOrNone()
-                    .onNone { removeFromHistory(layout.path.toString()) }
-                    .onSome {
-                        prefs.layout.current.set(layout)
-                        index = which
-                    }
-                    .recover {
-                        prefs.layout.current.default.loadKeyboardData(layoutLoader, context)
-                            .getOrNone().bind()
-                    }
-                    .getOrNull()
-                    .let { MainKeypadActionListener.rebuildKeyboardData(it) }
+                layoutLoadingService.load(layout) { keyboardData ->
+                    keyboardData
+                        .onNone {
+                            removeFromHistory(layout.path.toString())
+                            layoutLoadingService.load(prefs.layout.current.default)
+                        }
+                        .onSome {
+                            prefs.layout.current.set(layout)
+                            index = which
+                        }
+                }
             }
     }
 
-    private fun listCustomLayoutHistory() {
-        val uris = LinkedHashSet(prefs.layout.custom.history.get())
-        val customLayouts = layoutsWithKeyboardData
-            .toList()
-            .filter { it.first is CustomLayout }
-            .toMap()
-
-        customLayouts
-            .filter { !uris.contains(it.key.toString()) }
-            .forEach { (layout, _) -> layoutsWithKeyboardData.remove(layout) }
+    private fun customLayouts(): Set<Layout<*>> =
+        layoutsWithKeyboardData.keys.filterIsInstance<CustomLayout>().toSet()
 
-        uris.toList().flatMap { customLayoutUriString ->
-            val layout = customLayoutUriString.toCustomLayout()
-            if (customLayouts.containsKey(layout)) {
-                emptyList()
-            } else {
-                layout.loadKeyboardData(layoutLoader, context)
-                    .getOrNone()
-                    .filterNot { it.totalLayers == 0 }
-                    .map { layout to it.toString() }
-                    .onNone { uris.remove(customLayoutUriString) }
-                    .toList()
+    /**
+     * Loads the layouts of [uris] not listed yet, then lists them and calls [onLoaded]. Those which
+     * time out are loaded once more if [retry] is set, and stay in the history either way.
+     */
+    private fun loadCustomLayouts(
+        uris: Set<String>,
+        retry: Boolean = true,
+        onLoaded: () -> Unit = {}
+    ) {
+        val customLayouts = customLayouts()
+        layoutLoadingService.submitAll(
+            uris.filterNot { customLayouts.contains(it.toCustomLayout()) },
+            ::loadDisplayName,
+            onProgress = onProgress
+        ) { loaded ->
+            updateCustomLayouts(loaded)
+            if (retry && pendingUris.isNotEmpty()) {
+                loadCustomLayouts(pendingUris.toSet(), false)
             }
-        }.let { layoutsWithKeyboardData.putAll(it) }
-        prefs.layout.custom.history.set(uris)
+            onLoaded()
+        }
+    }
+
+    /**
+     * The display name of the layout of [uri], none if it does not load. It runs off the main
+     * thread.
+     */
+    private fun loadDisplayName(uri: String): Option<String> = uri.toCustomLayout()
+        .loadKeyboardData(layoutLoader, context)
+        .getOrNone()
+        .filterNot { it.totalLayers == 0 }
+        .map { it.toString() }
+
+    private fun updateCustomLayouts(loaded: Map<String, Either<Throwable, Option<String>>>) {
+        val historyPref = prefs.layout.custom.history
+        val history = LinkedHashSet(historyPref.get())
+        val names = layoutsWithKeyboardData.filterKeys { it is CustomLayout }.toMutableMap()
+        names.keys.forEach { layoutsWithKeyboardData.remove(it) }
+        loaded.forEach { (uri, result) ->
+            val name = result.fold(
+                { error ->
+                    if (error is TimeoutException) {
+                        pendingUris.add(uri)
+                        return@forEach
+                    }
+                    None
+                },
+                { it }
+            )
+            pendingUris.remove(uri)
+            name.fold(
+                { history.remove(uri) },
+                { names[uri.toCustomLayout()] = it }
+            )
+        }
+        // List the custom layouts in the order of the history, whichever batch loaded them.
+        history.forEach { uri ->
+            val layout = uri.toCustomLayout()
+            names[layout]?.let { layoutsWithKeyboardData[layout] = it }
+        }
+        if (history != historyPref.get()) {
+            historyPref.set(history)
+        }
+        findIndex()
     }
 
     private fun findIndex() {
-        index = layoutsWithKeyboardData.keys.indexOf(prefs.layout.current.get())
+        val current = prefs.layout.current.get()
+        index = layoutsWithKeyboardData.keys.indexOf(current)
         if (index == -1) {
             index = defaultIndex
-            prefs.layout.current.reset()
+            // A custom layout which timed out may still be listed once it loads.
+            if (pendingUris.none { it.toCustomLayout() == current }) {
+                prefs.layout.current.reset()
+            }
         }
     }
 }
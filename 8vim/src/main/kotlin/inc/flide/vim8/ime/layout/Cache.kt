@@ -3,33 +3,158 @@ package inc.flide.vim8.ime.layout
 import android.content.Context
 import arrow.core.None
 import arrow.core.Option
-import inc.flide.vim8.appPreferenceModel
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import inc.flide.vim8.BuildConfig
 import inc.flide.vim8.ime.layout.models.KeyboardData
 import inc.flide.vim8.ime.layout.parsers.CacheParser
 import java.io.File
+import java.util.zip.CRC32
 
-class Cache(private val cacheParser: CacheParser, context: Context) {
-    private val prefs by appPreferenceModel()
-    private val cacheDir = context.cacheDir
+private const val CACHE_DIRECTORY = "layouts"
+private const val MANIFEST = "manifest.json"
+private const val TEMPORARY_SUFFIX = ".tmp"
+private const val DEFAULT_MAX_SIZE = 1L shl 20
 
+data class CacheEntry(
+    val file: String,
+    val size: Long,
+    val checksum: Long,
+    val format: String,
+    val formatVersion: Int,
+    val lastAccess: Long
+)
+
+data class CacheManifest(val appVersion: Int, val entries: Map<String, CacheEntry>)
+
+/**
+ * Cache of loaded layouts, indexed by a manifest kept next to them.
+ *
+ * Entries written by another version of the app or in another format are dropped, as are files
+ * whose size or checksum no longer matches the manifest or which the parser rejects. The checksum
+ * is only verified the first time an entry is loaded by this process. Once the cache grows past
+ * [maxSize] the least recently used entries are evicted. Access times are kept in memory until the
+ * manifest is next written, either when an entry is added or dropped or by [persistAccessTimes].
+ * Files are written under a temporary name and renamed into place, so an interrupted write never
+ * leaves a partial entry or manifest behind.
+ */
+class Cache(
+    private val cacheParser: CacheParser,
+    context: Context,
+    private val maxSize: Long = DEFAULT_MAX_SIZE,
+    private val appVersion: Int = BuildConfig.VERSION_CODE,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    private val directory = File(context.cacheDir, CACHE_DIRECTORY)
+    private val manifestFile = File(directory, MANIFEST)
+    private val mapper = jacksonObjectMapper()
+    private val entries: MutableMap<String, CacheEntry> by lazy { readManifest() }
+    private val verified = HashSet<String>()
+    private var accessTimesChanged = false
+
+    @Synchronized
     fun load(name: String): Option<KeyboardData> {
-        val current = prefs.layout.cache.get()
-        if (current.contains(name)) {
-            val file = File(cacheDir, "$name.cbor")
-            return cacheParser
-                .load(file)
-                .onNone {
-                    prefs.layout.cache.set(current - name)
-                }
+        val entry = entries[name] ?: return None
+        val file = File(directory, entry.file)
+        // Later hits only compare the size, so that they neither read the whole file again nor
+        // write the manifest.
+        return Option.catch { file.length() == entry.size && isIntact(name, file, entry) }
+            .filter { it }
+            .flatMap { cacheParser.load(file) }
+            .onSome {
+                verified.add(name)
+                entries[name] = entry.copy(lastAccess = clock())
+                accessTimesChanged = true
+            }
+            .onNone {
+                remove(name)
+                writeManifest()
+            }
+    }
+
+    /**
+     * Writes the access times of the hits since the manifest was last written, so that eviction
+     * still follows use after a restart.
+     */
+    @Synchronized
+    fun persistAccessTimes() {
+        if (accessTimesChanged) {
+            writeManifest()
         }
-        return None
     }
 
+    @Synchronized
     fun add(name: String, keyboardData: KeyboardData) {
-        val current = prefs.layout.cache.get()
-        val file = File(cacheDir, "$name.cbor")
-        if (!current.contains(name) && cacheParser.save(file, keyboardData)) {
-            prefs.layout.cache.set(current + name)
+        directory.mkdirs()
+        val file = File(directory, "$name.${cacheParser.fileExtension}")
+        val temporary = File(directory, file.name + TEMPORARY_SUFFIX)
+        if (cacheParser.save(temporary, keyboardData) && temporary.renameTo(file)) {
+            verified.add(name)
+            entries[name] = CacheEntry(
+                file = file.name,
+                size = file.length(),
+                checksum = checksum(file),
+                format = cacheParser.fileExtension,
+                formatVersion = cacheParser.formatVersion,
+                lastAccess = clock()
+            )
+            evict(name)
+            writeManifest()
+        } else {
+            temporary.delete()
         }
     }
+
+    private fun evict(keep: String) {
+        var size = entries.values.sumOf { it.size }
+        val leastRecentlyUsed = entries
+            .filterKeys { it != keep }
+            .entries
+            .sortedBy { it.value.lastAccess }
+            .iterator()
+        while (size > maxSize && leastRecentlyUsed.hasNext()) {
+            val (name, entry) = leastRecentlyUsed.next()
+            remove(name)
+            size -= entry.size
+        }
+    }
+
+    private fun remove(name: String) {
+        verified.remove(name)
+        entries.remove(name)?.let { File(directory, it.file).delete() }
+    }
+
+    private fun readManifest(): MutableMap<String, CacheEntry> {
+        val entries = Option.catch { mapper.readValue<CacheManifest>(manifestFile) }
+            .filter { it.appVersion == appVersion }
+            .map { it.entries }
+            .getOrNull()
+            .orEmpty()
+            .filterValues {
+                it.format == cacheParser.fileExtension &&
+                    it.formatVersion == cacheParser.formatVersion
+            }
+            .toMutableMap()
+        // Files no entry refers to are stale formats or interrupted writes.
+        val files = entries.values.map { it.file }.toSet() + MANIFEST
+        directory.listFiles()
+            ?.filterNot { files.contains(it.name) }
+            ?.forEach { it.delete() }
+        return entries
+    }
+
+    private fun writeManifest() {
+        Option.catch {
+            directory.mkdirs()
+            val temporary = File(directory, MANIFEST + TEMPORARY_SUFFIX)
+            mapper.writeValue(temporary, CacheManifest(appVersion, entries))
+            check(temporary.renameTo(manifestFile))
+            accessTimesChanged = false
+        }
+    }
+
+    private fun isIntact(name: String, file: File, entry: CacheEntry): Boolean =
+        verified.contains(name) || checksum(file) == entry.checksum
+
+    private fun checksum(file: File): Long = CRC32().apply { update(file.readBytes()) }.value
 }
@@ -0,0 +1,55 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import arrow.core.Option
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import java.io.File
+
+private const val INDEX = "custom_layouts.json"
+private const val TEMPORARY_SUFFIX = ".tmp"
+
+data class LayoutMetadata(val size: Long, val lastModified: Long)
+
+data class CustomLayoutEntry(val metadata: LayoutMetadata, val md5: String)
+
+/**
+ * Remembers the MD5 of each custom layout along with the size and last modification time it had
+ * when it was hashed, so that an unchanged file is never read again just to find its cache entry.
+ *
+ * The index lives next to the layout cache rather than inside it, as the cache deletes any file
+ * it does not know about.
+ */
+class CustomLayoutIndex(context: Context) {
+    private val file = File(context.cacheDir, INDEX)
+    private val mapper = jacksonObjectMapper()
+    private val entries: MutableMap<String, CustomLayoutEntry> by lazy { read() }
+
+    @Synchronized
+    fun md5(uri: String, metadata: LayoutMetadata): Option<String> =
+        Option.fromNullable(entries[uri])
+            .filter { it.metadata == metadata }
+            .map { it.md5 }
+
+    @Synchronized
+    fun add(uri: String, metadata: LayoutMetadata, md5: String) {
+        val entry = CustomLayoutEntry(metadata, md5)
+        if (entries.put(uri, entry) != entry) {
+            write()
+        }
+    }
+
+    private fun read(): MutableMap<String, CustomLayoutEntry> =
+        Option.catch { mapper.readValue<Map<String, CustomLayoutEntry>>(file) }
+            .getOrNull()
+            .orEmpty()
+            .toMutableMap()
+
+    private fun write() {
+        Option.catch {
+            val temporary = File(file.parentFile, INDEX + TEMPORARY_SUFFIX)
+            mapper.writeValue(temporary, entries)
+            check(temporary.renameTo(file))
+        }
+    }
+}
@@ -3,7 +3,9 @@ package inc.flide.vim8.ime.layout
 import android.annotation.SuppressLint
 import android.content.Context
 import android.content.SharedPreferences
+import android.database.Cursor
 import android.net.Uri
+import android.provider.DocumentsContract.Document
 import android.provider.OpenableColumns
 import arrow.core.Either
 import arrow.core.Option
@@ -15,45 +17,66 @@ import arrow.core.none
 import arrow.core.raise.catch
 import arrow.core.right
 import arrow.core.some
-import inc.flide.vim8.R
 import inc.flide.vim8.appPreferenceModel
 import inc.flide.vim8.cache
+import inc.flide.vim8.customLayoutIndex
 import inc.flide.vim8.datastore.model.PreferenceSerDe
 import inc.flide.vim8.ime.LayoutLoader
 import inc.flide.vim8.ime.layout.models.KeyboardData
 import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
 import inc.flide.vim8.ime.layout.models.error.LayoutError
 import inc.flide.vim8.ime.layout.models.info
+import inc.flide.vim8.ime.layout.models.layoutDisplayName
 import inc.flide.vim8.ime.layout.models.yaml.name
+import inc.flide.vim8.layoutManifest
+import inc.flide.vim8.layoutMemoryCache
 import inc.flide.vim8.lib.android.tryOrNull
+import java.io.File
 import java.io.InputStream
+import java.security.DigestInputStream
 import java.util.Locale
+import org.apache.commons.codec.binary.Hex
 import org.apache.commons.codec.digest.DigestUtils
 
-private val isoCodes = Locale.getISOLanguages().toSet()
-
-fun embeddedLayouts(
-    layoutLoader: LayoutLoader,
-    context: Context
-): List<Pair<EmbeddedLayout, String>> =
-    (R.raw::class.java.fields)
-        .filter { isoCodes.contains(it.name) }
-        .flatMap { field ->
-            EmbeddedLayout(field.name)
-                .let { layout ->
-                    layout
-                        .loadKeyboardData(layoutLoader, context)
-                        .getOrNone()
-                        .filterNot { it.totalLayers == 0 }
-                        .map { layout to it.toString() }
-                }.toList()
+fun embeddedLayouts(context: Context): List<Pair<EmbeddedLayout, String>> {
+    val manifest by context.layoutManifest()
+    return manifest.entries
+        .filterNot { it.totalLayers == 0 }
+        .map { entry ->
+            val layout = EmbeddedLayout(entry.locale)
+            val name = entry.name.ifEmpty { layout.defaultName(context) }
+            layout to layoutDisplayName(name, entry.totalLayers)
         }.sortedBy { it.second }
+}
+
+fun compiledLayoutAsset(name: String): String = "layouts/$name.cbor"
 
 interface Layout<T> {
     val path: T
     fun inputStream(context: Context): Either<LayoutError, InputStream>
-    fun md5(context: Context): Option<String>
+
+    /**
+     * The size and last modification time of the layout, as reported without opening it.
+     */
+    fun metadata(context: Context): Option<LayoutMetadata> = none()
+
+    /**
+     * The key of the layout in the cache, if it is known from [metadata] without reading the
+     * layout.
+     */
+    fun md5(context: Context, metadata: Option<LayoutMetadata>): Option<String>
+
+    /**
+     * Called with the MD5 of the layout content when it had to be read to find it, and with the
+     * [metadata] read before it, for [md5] to find it later on.
+     */
+    fun onMd5(context: Context, metadata: LayoutMetadata, md5: String) {}
+
     fun defaultName(context: Context): String
+    fun load(
+        layoutLoader: LayoutLoader,
+        inputStream: InputStream
+    ): Either<LayoutError, KeyboardData> = layoutLoader.loadKeyboardData(inputStream)
 }
 
 fun safeLoadKeyboardData(layoutLoader: LayoutLoader, context: Context): KeyboardData? {
@@ -79,23 +102,64 @@ fun safeLoadKeyboardData(layoutLoader: LayoutLoader, context: Context): Keyboard
 fun <T> Layout<T>.loadKeyboardData(
     layoutLoader: LayoutLoader,
     context: Context
-): Either<LayoutError, KeyboardData> =
-    md5(context)
-        .toEither { ExceptionWrapperError(Exception("MD5")) }
-        .flatMap { md5 ->
-            val cache by context.cache()
-            cache.load(md5).fold({
-                inputStream(context)
-                    .flatMap {
-                        layoutLoader.loadKeyboardData(it)
-                    }
-                    .map {
-                        KeyboardData.info.name.modify(it) { name ->
-                            name.ifEmpty { defaultName(context) }
-                        }
-                    }.onRight { cache.add(md5, it) }
-            }, { it.right() })
+): Either<LayoutError, KeyboardData> {
+    val cache by context.cache()
+    val memoryCache by context.layoutMemoryCache()
+    fun cached(key: String): Option<KeyboardData> = memoryCache.load(memoryCacheKey(key)).fold(
+        { cache.load(key).onSome { memoryCache.add(memoryCacheKey(key), it) } },
+        { it.some() }
+    )
+
+    // Read once, so that the MD5 recorded goes with the metadata it was looked up with.
+    val metadata = metadata(context)
+    val md5 = md5(context, metadata)
+    md5.flatMap { cached(it) }.onSome { return it.right() }
+    return inputStream(context)
+        .flatMap { inputStream ->
+            inputStream.use { stream ->
+                md5.fold({
+                    metadata.fold({
+                        // The MD5 would not be remembered, so look the content up in the caches
+                        // before parsing it.
+                        val content = stream.readBytes()
+                        val digest = DigestUtils.md5Hex(content)
+                        cached(digest).onSome { return it.right() }
+                        load(layoutLoader, content.inputStream()).map { digest to it }
+                    }, { stamp ->
+                        val (digest, keyboardData) = digesting(stream) { load(layoutLoader, it) }
+                        keyboardData.map { digest to it }.onRight { onMd5(context, stamp, digest) }
+                    })
+                }, { key ->
+                    load(layoutLoader, stream).map { key to it }
+                })
+            }
         }
+        .map { (key, keyboardData) ->
+            val named = KeyboardData.info.name.modify(keyboardData) { name ->
+                name.ifEmpty { defaultName(context) }
+            }
+            cache.add(key, named)
+            memoryCache.add(memoryCacheKey(key), named)
+            named
+        }
+}
+
+// Custom layouts are cached by content, but their name may come from their path.
+private fun Layout<*>.memoryCacheKey(md5: String): String = "$path:$md5"
+
+/**
+ * Reads [inputStream] with [read] while hashing it, so that the layout is read only once.
+ */
+private fun <R> digesting(inputStream: InputStream, read: (InputStream) -> R): Pair<String, R> {
+    val digest = DigestUtils.getMd5Digest()
+    val stream = object : DigestInputStream(inputStream, digest) {
+        // Parsers close their input, possibly before reading all of it.
+        override fun close() {}
+    }
+    val result = read(stream)
+    stream.readBytes()
+    return Hex.encodeHexString(digest.digest()) to result
+}
 
 fun String.toCustomLayout(): CustomLayout {
     return CustomLayout(Uri.parse(this))
@@ -142,17 +206,23 @@ object LayoutSerDe : PreferenceSerDe<Layout<*>> {
 }
 
 data class EmbeddedLayout(override val path: String) : Layout<String> {
-    @SuppressLint("DiscouragedApi")
-    override fun inputStream(context: Context): Either<LayoutError, InputStream> {
-        val resources = context.resources
-        val resourceId =
-            resources.getIdentifier(path, "raw", context.packageName)
-        return catch({
-            resources.openRawResource(resourceId).right()
-        }) { e: Throwable -> ExceptionWrapperError(e).left() }
+    override fun inputStream(context: Context): Either<LayoutError, InputStream> = catch({
+        context.assets.open(compiledLayoutAsset(path)).right()
+    }) { e: Throwable -> ExceptionWrapperError(e).left() }
+
+    override fun load(
+        layoutLoader: LayoutLoader,
+        inputStream: InputStream
+    ): Either<LayoutError, KeyboardData> = layoutLoader.loadCompiledKeyboardData(inputStream)
+
+    override fun md5(context: Context, metadata: Option<LayoutMetadata>): Option<String> {
+        val manifest by context.layoutManifest()
+        return manifest.entry(path)
+            .map { "$path-${it.md5}" }
+            .getOrElse { path }
+            .some()
     }
 
-    override fun md5(context: Context): Option<String> = path.some()
     override fun defaultName(context: Context): String {
         val locale = Locale(path)
         return Locale.forLanguageTag(path).getDisplayName(locale)
@@ -166,37 +236,63 @@ data class CustomLayout(override val path: Uri) : Layout<Uri> {
         context.contentResolver.openInputStream(path)!!.right()
     }) { e: Throwable -> ExceptionWrapperError(e).left() }
 
-    override fun md5(context: Context): Option<String> = inputStream(context)
-        .getOrNone()
-        .map { DigestUtils.md5Hex(it) }
+    override fun md5(context: Context, metadata: Option<LayoutMetadata>): Option<String> {
+        val index by context.customLayoutIndex()
+        return metadata.flatMap { index.md5(path.toString(), it) }
+    }
+
+    override fun onMd5(context: Context, metadata: LayoutMetadata, md5: String) {
+        val index by context.customLayoutIndex()
+        index.add(path.toString(), metadata, md5)
+    }
 
     override fun defaultName(context: Context): String = Option.catch {
         Option.fromNullable(path.scheme)
             .flatMap {
                 when (it) {
                     "file" -> Option.fromNullable(path.lastPathSegment)
-                    "content" -> Option.fromNullable(
-                        context.contentResolver.query(
-                            path,
-                            null,
-                            null,
-                            null,
-                            null
-                        )?.let { cursor ->
-                            var result = ""
-                            if (cursor.count != 0) {
-                                val columnIndex =
-                                    cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME)
-                                cursor.moveToFirst()
-                                result = cursor.getString(columnIndex)
-                            }
-                            cursor.close()
-                            result
-                        }
-                    )
+                    "content" -> query(context) { cursor ->
+                        cursor.getString(cursor.getColumnIndexOrThrow(OpenableColumns.DISPLAY_NAME))
+                    }
 
                     else -> none()
                 }
             }
     }.flatten().getOrElse { "" }
+
+    override fun metadata(context: Context): Option<LayoutMetadata> = Option.catch {
+        when (path.scheme) {
+            "file" -> Option.fromNullable(path.path)
+                .map { File(it) }
+                .filter { it.isFile }
+                .map { LayoutMetadata(it.length(), it.lastModified()) }
+
+            "content" -> query(context) { cursor ->
+                val size = cursor.getColumnIndex(OpenableColumns.SIZE)
+                val lastModified = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED)
+                if (size < 0 || lastModified < 0 || cursor.isNull(size) ||
+                    cursor.isNull(lastModified)
+                ) {
+                    null
+                } else {
+                    LayoutMetadata(cursor.getLong(size), cursor.getLong(lastModified))
+                }
+            }
+
+            else -> none()
+        }
+    }.flatten()
+
+    private fun <R> query(context: Context, read: (Cursor) -> R?): Option<R> =
+        Option.fromNullable(context.contentResolver.query(path, null, null, null, null))
+            .flatMap { cursor ->
+                cursor.use {
+                    if (it.count != 0) {
+                        it.moveToFirst()
+                        Option.fromNullable(read(it))
+                    } else {
+                        none()
+                    }
+                }
+            }
 }
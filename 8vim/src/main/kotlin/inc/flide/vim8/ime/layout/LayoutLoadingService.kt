@@ -0,0 +1,142 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import androidx.core.content.ContextCompat
+import arrow.core.Either
+import arrow.core.Option
+import arrow.core.left
+import inc.flide.vim8.ime.LayoutLoader
+import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+private const val THREAD_NAME = "LayoutLoader"
+private const val POOL_THREAD_NAME = "LayoutLoaderPool"
+private const val TIMER_THREAD_NAME = "LayoutLoaderTimer"
+private const val MAX_POOL_SIZE = 4
+private const val DEFAULT_TIMEOUT = 5000L
+
+/**
+ * Loads layouts off the main thread and publishes them to [MainKeypadActionListener] from it.
+ *
+ * Loads run one after the other on a single worker, and their results are handed back to the
+ * main thread in the same order. Only the layout of the latest request is published, so a slow
+ * layout never replaces one requested after it, and until then the keyboard keeps showing the
+ * last published layout. Batches of layouts are loaded concurrently on a small pool instead, and
+ * do not hold up the worker.
+ */
+class LayoutLoadingService(
+    val layoutLoader: LayoutLoader,
+    private val context: Context,
+    private val worker: Executor = Executors.newSingleThreadExecutor { Thread(it, THREAD_NAME) },
+    private val mainThread: Executor = ContextCompat.getMainExecutor(context),
+    private val pool: Executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_POOL_SIZE)
+    ) { Thread(it, POOL_THREAD_NAME) },
+    private val timer: ScheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor { Thread(it, TIMER_THREAD_NAME) }
+) {
+    private val latestRequest = AtomicInteger()
+
+    /**
+     * Loads the current layout, falling back to the default one, and publishes it.
+     */
+    fun loadCurrent() {
+        publish { Option.fromNullable(safeLoadKeyboardData(layoutLoader, context)) }
+    }
+
+    /**
+     * Loads [layout] and publishes it if it loaded, [onLoaded] being called on the main thread
+     * either way.
+     */
+    fun load(layout: Layout<*>, onLoaded: (Option<KeyboardData>) -> Unit = {}) {
+        publish(onLoaded) { layout.loadKeyboardData(layoutLoader, context).getOrNone() }
+    }
+
+    /**
+     * Loads [layout] into the cache without publishing it.
+     */
+    fun prefetch(layout: Layout<*>) {
+        worker.execute { layout.loadKeyboardData(layoutLoader, context) }
+    }
+
+    /**
+     * Runs [task] on the worker and hands its result to [onResult] on the main thread.
+     */
+    fun <T> submit(task: () -> T, onResult: (T) -> Unit) {
+        worker.execute {
+            val result = task()
+            mainThread.execute { onResult(result) }
+        }
+    }
+
+    /**
+     * Runs [task] for each of [items] on the pool and hands their results to [onResult] on the
+     * main thread, in the order of [items]. A task yields a [TimeoutException] once [timeout]
+     * milliseconds have passed since it was submitted, and any exception it throws otherwise.
+     * [onProgress] is called on the main thread with the number of tasks done so far and their
+     * total.
+     *
+     * No thread waits for the tasks, so neither the worker nor the pool is held up by a batch. A
+     * task which times out is cancelled: interrupted if it is running, dropped if it is still
+     * queued, so that tasks stuck on I/O neither hold the pool nor keep the batch from completing.
+     */
+    fun <K, T> submitAll(
+        items: List<K>,
+        task: (K) -> T,
+        timeout: Long = DEFAULT_TIMEOUT,
+        onProgress: (Int, Int) -> Unit = { _, _ -> },
+        onResult: (Map<K, Either<Throwable, T>>) -> Unit
+    ) {
+        if (items.isEmpty()) {
+            mainThread.execute { onResult(emptyMap()) }
+            return
+        }
+        val results = AtomicReferenceArray<Either<Throwable, T>>(items.size)
+        val done = AtomicInteger()
+        fun complete(index: Int, result: Either<Throwable, T>) {
+            if (!results.compareAndSet(index, null, result)) return
+            val progress = done.incrementAndGet()
+            mainThread.execute { onProgress(progress, items.size) }
+            if (progress == items.size) {
+                val batch = items.withIndex().associate { (i, item) -> item to results.get(i) }
+                mainThread.execute { onResult(batch) }
+            }
+        }
+        items.forEachIndexed { index, item ->
+            val future = FutureTask { complete(index, Either.catch { task(item) }) }
+            timer.schedule(
+                Runnable {
+                    complete(index, TimeoutException().left())
+                    future.cancel(true)
+                },
+                timeout,
+                TimeUnit.MILLISECONDS
+            )
+            pool.execute(future)
+        }
+    }
+
+    private fun publish(
+        onLoaded: (Option<KeyboardData>) -> Unit = {},
+        load: () -> Option<KeyboardData>
+    ) {
+        val request = latestRequest.incrementAndGet()
+        submit({
+            // Compile the gesture automaton on the worker as well.
+            load().onSome { it.gestureAutomaton }
+        }) { keyboardData ->
+            if (request == latestRequest.get()) {
+                keyboardData.onSome { MainKeypadActionListener.rebuildKeyboardData(it) }
+            }
+            onLoaded(keyboardData)
+        }
+    }
+}
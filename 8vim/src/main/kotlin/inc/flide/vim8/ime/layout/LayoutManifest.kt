@@ -0,0 +1,43 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import android.util.Log
+import arrow.core.Either
+import arrow.core.Option
+import arrow.core.getOrNone
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+
+data class LayoutManifestEntry(
+    val locale: String = "",
+    val name: String = "",
+    val totalLayers: Int = 0,
+    val md5: String = ""
+)
+
+/**
+ * Index of the embedded layouts, generated at build time by `LayoutCompiler` along with the
+ * compiled layouts, so that listing them does not require parsing every one of them.
+ */
+class LayoutManifest(entries: List<LayoutManifestEntry>) {
+    private val entriesByLocale = entries.associateBy { it.locale }
+
+    val entries: Collection<LayoutManifestEntry>
+        get() = entriesByLocale.values
+
+    fun entry(locale: String): Option<LayoutManifestEntry> = entriesByLocale.getOrNone(locale)
+
+    companion object {
+        const val ASSET = "layouts/manifest.json"
+        private const val TAG = "LayoutManifest"
+
+        fun load(context: Context): LayoutManifest = Either.catch {
+            context.assets.open(ASSET).use {
+                jacksonObjectMapper().readValue<List<LayoutManifestEntry>>(it)
+            }
+        }.fold({
+            Log.e(TAG, "Could not read the layout manifest", it)
+            LayoutManifest(emptyList())
+        }, { LayoutManifest(it) })
+    }
+}
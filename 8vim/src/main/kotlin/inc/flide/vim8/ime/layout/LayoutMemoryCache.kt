@@ -0,0 +1,66 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.ComponentCallbacks2
+import arrow.core.Option
+import inc.flide.vim8.ime.layout.models.KeyboardData
+
+// Rough footprint of an action: its map entry, movement sequence and KeyboardAction.
+private const val ESTIMATED_ACTION_SIZE = 256L
+private const val DEFAULT_MAX_SIZE = 1L shl 20
+
+/**
+ * Decoded layouts recently loaded, so that switching back to one of them skips the layout cache
+ * and reuses the very same [KeyboardData], gesture automaton included.
+ *
+ * Entries are keyed by layout and content hash. Their size is estimated from their number of
+ * actions, and once the total grows past [maxSize] the least recently used ones are dropped.
+ */
+class LayoutMemoryCache(private val maxSize: Long = DEFAULT_MAX_SIZE) {
+    private val entries = LinkedHashMap<String, KeyboardData>(16, 0.75f, true)
+    private var size = 0L
+
+    @Synchronized
+    fun load(key: String): Option<KeyboardData> = Option.fromNullable(entries[key])
+
+    @Synchronized
+    fun add(key: String, keyboardData: KeyboardData) {
+        entries.put(key, keyboardData)?.let { size -= sizeOf(it) }
+        size += sizeOf(keyboardData)
+        trimToSize(maxSize)
+    }
+
+    @Synchronized
+    fun clear() {
+        trimToSize(0)
+    }
+
+    /**
+     * Gives memory back when the system asks for it: half of the budget when memory runs low or
+     * the keyboard is hidden, everything when memory is critically low or the app is in the
+     * background, where it is likely to be killed.
+     */
+    fun onTrimMemory(level: Int) {
+        when {
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> clear()
+
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> trimToHalf()
+        }
+    }
+
+    @Synchronized
+    private fun trimToHalf() {
+        trimToSize(maxSize / 2)
+    }
+
+    private fun trimToSize(maxSize: Long) {
+        val leastRecentlyUsed = entries.values.iterator()
+        while (size > maxSize && leastRecentlyUsed.hasNext()) {
+            size -= sizeOf(leastRecentlyUsed.next())
+            leastRecentlyUsed.remove()
+        }
+    }
+
+    private fun sizeOf(keyboardData: KeyboardData): Long =
+        (keyboardData.actionMap.size + 1) * ESTIMATED_ACTION_SIZE
+}
@@ -2,6 +2,7 @@ package inc.flide.vim8.ime.layout.models
 
 import android.view.KeyEvent
 import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.ime.InputMethodActions
 
 enum class CustomKeycode(@JvmField val keyCode: Int) {
     MOVE_CURRENT_END_POINT_LEFT(-2),
@@ -22,7 +23,7 @@ enum class CustomKeycode(@JvmField val keyCode: Int) {
     SWITCH_TO_CLIPPAD_KEYBOARD(-17),
     CTRL_TOGGLE(-18);
 
-    fun handleKeyCode(mainInputMethodService: MainInputMethodService): Boolean {
+    fun handleKeyCode(mainInputMethodService: InputMethodActions): Boolean {
         when (this) {
             MOVE_CURRENT_END_POINT_LEFT,
             MOVE_CURRENT_END_POINT_RIGHT,
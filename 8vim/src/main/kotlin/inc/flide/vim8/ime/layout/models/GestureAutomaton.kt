@@ -0,0 +1,134 @@
+package inc.flide.vim8.ime.layout.models
+
+/**
+ * Deterministic finite automaton over [FingerPosition] compiled from an action map.
+ *
+ * Every movement sequence of the action map is a path from [START_STATE], so walking the
+ * automaton one position at a time reaches the state of the whole sequence without building
+ * or hashing a list. Unknown sequences fall into [DEAD_STATE], which loops onto itself, so a
+ * transition is always a single array lookup.
+ *
+ * Each state also carries, for every visible layer, a bitmask of the character slots of that
+ * layer that can still be reached from it.
+ */
+class GestureAutomaton private constructor(
+    private val transitions: IntArray,
+    private val actions: Array<KeyboardAction?>,
+    private val candidates: IntArray
+) {
+    val size: Int
+        get() = actions.size
+
+    fun next(state: Int, fingerPosition: FingerPosition): Int =
+        transitions[state * ALPHABET_SIZE + fingerPosition.ordinal]
+
+    fun walk(state: Int, movementSequence: MovementSequence): Int =
+        movementSequence.fold(state) { acc, fingerPosition -> next(acc, fingerPosition) }
+
+    fun walk(state: Int, movementSequence: PackedMovementSequence): Int {
+        if (!movementSequence.isExact) {
+            return DEAD_STATE
+        }
+        var current = state
+        for (i in 0 until movementSequence.size) {
+            current = next(current, movementSequence[i])
+        }
+        return current
+    }
+
+    fun action(state: Int): KeyboardAction? = actions[state]
+
+    fun layer(state: Int): LayerLevel = layerOf(actions[state])
+
+    /**
+     * Bitmask of the character slots of [layer] reachable from [state], bit `i` standing for
+     * the `i`-th character of the layer's character set.
+     */
+    fun candidates(state: Int, layer: LayerLevel): Int =
+        if (layer == LayerLevel.HIDDEN) {
+            0
+        } else {
+            candidates[state * VISIBLE_LAYERS + layer.ordinal - 1]
+        }
+
+    companion object {
+        const val DEAD_STATE = 0
+        const val START_STATE = 1
+        private val ALPHABET_SIZE = FingerPosition.values().size
+        private val VISIBLE_LAYERS = LayerLevel.VisibleLayers.size
+
+        fun compile(
+            actionMap: Map<MovementSequence, KeyboardAction>,
+            characterSets: List<CharacterSet> = emptyList()
+        ): GestureAutomaton {
+            val rows = arrayListOf(IntArray(ALPHABET_SIZE), IntArray(ALPHABET_SIZE))
+            val actions = arrayListOf<KeyboardAction?>(null, null)
+            actionMap.forEach { (movementSequence, action) ->
+                val state = movementSequence.fold(START_STATE) { current, fingerPosition ->
+                    val row = rows[current]
+                    if (row[fingerPosition.ordinal] == DEAD_STATE) {
+                        row[fingerPosition.ordinal] = rows.size
+                        rows.add(IntArray(ALPHABET_SIZE))
+                        actions.add(null)
+                    }
+                    row[fingerPosition.ordinal]
+                }
+                actions[state] = action
+            }
+
+            val transitions = IntArray(rows.size * ALPHABET_SIZE)
+            rows.forEachIndexed { state, row ->
+                row.copyInto(transitions, state * ALPHABET_SIZE)
+            }
+            return GestureAutomaton(
+                transitions,
+                actions.toTypedArray(),
+                compileCandidates(transitions, actions, characterSets)
+            )
+        }
+
+        private fun compileCandidates(
+            transitions: IntArray,
+            actions: List<KeyboardAction?>,
+            characterSets: List<CharacterSet>
+        ): IntArray {
+            val candidates = IntArray(actions.size * VISIBLE_LAYERS)
+            actions.forEachIndexed { state, action ->
+                val layerIndex = (action?.layer?.ordinal ?: 0) - 1
+                val characterSet = characterSets.getOrNull(layerIndex)
+                if (action != null && characterSet != null) {
+                    candidates[state * VISIBLE_LAYERS + layerIndex] =
+                        slotsOf(characterSet.lowerCaseCharacters, action.text) or
+                        slotsOf(characterSet.upperCaseCharacters, action.capsLockText)
+                }
+            }
+            // Children are always numbered after their parent, so walking the states backwards
+            // folds every subtree before its root.
+            for (state in actions.size - 1 downTo START_STATE) {
+                for (fingerPosition in 0 until ALPHABET_SIZE) {
+                    val child = transitions[state * ALPHABET_SIZE + fingerPosition]
+                    if (child != DEAD_STATE) {
+                        for (layer in 0 until VISIBLE_LAYERS) {
+                            candidates[state * VISIBLE_LAYERS + layer] =
+                                candidates[state * VISIBLE_LAYERS + layer] or
+                                candidates[child * VISIBLE_LAYERS + layer]
+                        }
+                    }
+                }
+            }
+            return candidates
+        }
+
+        private fun slotsOf(characters: String, text: String): Int {
+            var slots = 0
+            if (text.isNotEmpty()) {
+                for (i in 0 until minOf(characters.length, Int.SIZE_BITS)) {
+                    if (characters[i] == text[0]) {
+                        slots = slots or (1 shl i)
+                    }
+                }
+            }
+            return slots
+        }
+    }
+}
@@ -7,6 +7,7 @@ import arrow.core.some
 import arrow.optics.dsl.index
 import arrow.optics.optics
 import arrow.optics.typeclasses.Index
+import com.fasterxml.jackson.annotation.JsonIgnore
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize
 import com.fasterxml.jackson.databind.annotation.JsonSerialize
 import inc.flide.vim8.ime.layout.models.yaml.LayoutInfo
@@ -27,15 +28,25 @@ data class KeyboardData(
         .indexOfLast { it.isNotEmpty() }
         .let { if (it == -1) 0 else it + 1 }
 
-    override fun toString(): String {
-        val sb = StringBuilder(info.name)
-        if (totalLayers > 1) {
-            sb.append(" (")
-            sb.append(totalLayers)
-            sb.append(" layers)")
-        }
-        return sb.toString()
+    @get:JsonIgnore
+    val gestureAutomaton: GestureAutomaton by lazy {
+        GestureAutomaton.compile(actionMap, characterSets)
+    }
+
+    @get:JsonIgnore
+    val actionTable: MovementSequenceActionTable by lazy { MovementSequenceActionTable(actionMap) }
+
+    override fun toString(): String = layoutDisplayName(info.name, totalLayers)
+}
+
+fun layoutDisplayName(name: String, totalLayers: Int): String {
+    val sb = StringBuilder(name)
+    if (totalLayers > 1) {
+        sb.append(" (")
+        sb.append(totalLayers)
+        sb.append(" layers)")
     }
+    return sb.toString()
 }
 
 fun KeyboardData.addAllToActionMap(
@@ -93,7 +104,15 @@ fun KeyboardData.setUpperCaseCharacters(
 }
 
 fun KeyboardData.findLayer(movementSequence: MovementSequence): LayerLevel {
-    return actionMap[movementSequence]?.layer.let {
+    return layerOf(actionTable[movementSequence])
+}
+
+fun KeyboardData.findLayer(movementSequence: PackedMovementSequence): LayerLevel {
+    return layerOf(actionTable[movementSequence])
+}
+
+internal fun layerOf(keyboardAction: KeyboardAction?): LayerLevel {
+    return keyboardAction?.layer.let {
         if (it == LayerLevel.HIDDEN) {
             LayerLevel.FIRST
         } else {
@@ -0,0 +1,57 @@
+package inc.flide.vim8.ime.layout.models
+
+import arrow.core.Option
+import arrow.core.elementAtOrNone
+import inc.flide.vim8.ime.layout.models.yaml.LayoutInfo
+
+/**
+ * Mutable counterpart of [KeyboardData], which adds actions and characters in place rather than
+ * copying the whole action map on each addition. [build] freezes it into a [KeyboardData].
+ */
+class KeyboardDataBuilder(keyboardData: KeyboardData = KeyboardData()) {
+    private val actionMap = HashMap(keyboardData.actionMap)
+    private val lowerCaseCharacters =
+        keyboardData.characterSets.map { it.lowerCaseCharacters }.toMutableList()
+    private val upperCaseCharacters =
+        keyboardData.characterSets.map { it.upperCaseCharacters }.toMutableList()
+    var info: LayoutInfo = keyboardData.info
+
+    val actions: Map<MovementSequence, KeyboardAction>
+        get() = actionMap
+
+    fun addAction(movementSequence: MovementSequence, action: KeyboardAction) = apply {
+        actionMap[movementSequence] = action
+    }
+
+    fun addAllToActionMap(actionMapAddition: Map<MovementSequence, KeyboardAction>) = apply {
+        actionMap.putAll(actionMapAddition)
+    }
+
+    fun lowerCaseCharacters(layer: LayerLevel): Option<String> =
+        lowerCaseCharacters.elementAtOrNone(layer.ordinal - 1).filter { it.isNotEmpty() }
+
+    fun upperCaseCharacters(layer: LayerLevel): Option<String> =
+        upperCaseCharacters.elementAtOrNone(layer.ordinal - 1).filter { it.isNotEmpty() }
+
+    fun setLowerCaseCharacters(characters: String, layer: LayerLevel) = apply {
+        set(lowerCaseCharacters, characters, layer)
+    }
+
+    fun setUpperCaseCharacters(characters: String, layer: LayerLevel) = apply {
+        set(upperCaseCharacters, characters, layer)
+    }
+
+    fun build(): KeyboardData = KeyboardData(
+        actionMap = HashMap(actionMap),
+        characterSets = lowerCaseCharacters.zip(upperCaseCharacters) { lowerCase, upperCase ->
+            CharacterSet(lowerCase, upperCase)
+        },
+        info = info
+    )
+
+    private fun set(characterSets: MutableList<String>, characters: String, layer: LayerLevel) {
+        if (layer.ordinal - 1 in characterSets.indices) {
+            characterSets[layer.ordinal - 1] = characters
+        }
+    }
+}
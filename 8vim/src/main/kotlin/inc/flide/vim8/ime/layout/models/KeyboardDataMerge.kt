@@ -0,0 +1,50 @@
+package inc.flide.vim8.ime.layout.models
+
+import arrow.core.getOrElse
+
+/**
+ * An action of a layout dropped because its movement sequence already had another action.
+ */
+data class ActionConflict(
+    val movementSequence: MovementSequence,
+    val kept: KeyboardAction,
+    val dropped: KeyboardAction
+)
+
+data class MergedKeyboardData(
+    val keyboardData: KeyboardData,
+    val conflicts: List<ActionConflict> = emptyList()
+)
+
+/**
+ * Adds the actions and characters of [layout] to this keyboard data, key by key.
+ *
+ * Actions of [layout] whose movement sequence already has a different action here are dropped
+ * and reported as conflicts, the others are all kept. Characters already set here for a layer
+ * win over those of [layout], and layers [layout] has no characters for end up empty. The info
+ * is the one of [layout].
+ */
+fun KeyboardData.mergeWith(layout: KeyboardData): MergedKeyboardData {
+    val builder = KeyboardDataBuilder(this)
+    builder.info = layout.info
+    val conflicts = mutableListOf<ActionConflict>()
+    layout.actionMap.forEach { (movementSequence, action) ->
+        val existing = actionMap[movementSequence]
+        if (existing == null || existing == action) {
+            builder.addAction(movementSequence, action)
+        } else {
+            conflicts.add(ActionConflict(movementSequence, existing, action))
+        }
+    }
+    LayerLevel.VisibleLayers.forEach { layer ->
+        val lowerCase = layout.lowerCaseCharacters(layer).map { characters ->
+            lowerCaseCharacters(layer).getOrElse { characters }
+        }.getOrNull().orEmpty()
+        val upperCase = layout.upperCaseCharacters(layer).map { characters ->
+            upperCaseCharacters(layer).getOrElse { characters }
+        }.getOrNull().orEmpty()
+        builder.setLowerCaseCharacters(lowerCase, layer)
+            .setUpperCaseCharacters(upperCase, layer)
+    }
+    return MergedKeyboardData(builder.build(), conflicts)
+}
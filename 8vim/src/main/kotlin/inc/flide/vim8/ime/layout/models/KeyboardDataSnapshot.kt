@@ -0,0 +1,15 @@
+package inc.flide.vim8.ime.layout.models
+
+import arrow.core.None
+import arrow.core.Option
+
+/**
+ * A published layout, [version] growing with each publication so that readers can tell whether
+ * the layout changed since they last looked at it.
+ */
+data class KeyboardDataSnapshot(
+    val version: Long = 0,
+    val keyboardData: Option<KeyboardData> = None
+) {
+    fun next(keyboardData: Option<KeyboardData>) = KeyboardDataSnapshot(version + 1, keyboardData)
+}
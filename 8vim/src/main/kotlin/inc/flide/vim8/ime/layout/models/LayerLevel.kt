@@ -25,3 +25,10 @@ enum class LayerLevel {
             }
     }
 }
+
+private val PACKED_MOVEMENT_SEQUENCES = LayerLevel.values().map {
+    LayerLevel.MovementSequences[it].orEmpty().pack()
+}.toTypedArray()
+
+val LayerLevel.packedMovementSequence: PackedMovementSequence
+    get() = PACKED_MOVEMENT_SEQUENCES[ordinal]
@@ -0,0 +1,57 @@
+package inc.flide.vim8.ime.layout.models
+
+private const val FREE_SLOT = -1L
+private const val HASH_MULTIPLIER = -7046029254386353131L
+
+/**
+ * Open-addressing hash table from [PackedMovementSequence] to [KeyboardAction].
+ *
+ * Keys are stored as raw longs and probed linearly, so a lookup neither boxes nor hashes a list.
+ * Movement sequences too long to be packed exactly are kept in a regular map.
+ */
+class MovementSequenceActionTable(actionMap: Map<MovementSequence, KeyboardAction>) {
+    private val keys: LongArray
+    private val values: Array<KeyboardAction?>
+    private val mask: Int
+    private val overflow: Map<MovementSequence, KeyboardAction>
+    val size: Int = actionMap.size
+
+    init {
+        val capacity = Integer.highestOneBit(maxOf(actionMap.size, 1) * 2) * 2
+        keys = LongArray(capacity) { FREE_SLOT }
+        values = arrayOfNulls(capacity)
+        mask = capacity - 1
+        overflow = actionMap.filterKeys { it.size > PackedMovementSequence.MAX_SIZE }
+        actionMap.forEach { (movementSequence, action) ->
+            if (movementSequence.size <= PackedMovementSequence.MAX_SIZE) {
+                val packedMovementSequence = movementSequence.pack()
+                val slot = slotOf(packedMovementSequence)
+                keys[slot] = packedMovementSequence.bits
+                values[slot] = action
+            }
+        }
+    }
+
+    private fun slotOf(movementSequence: PackedMovementSequence): Int {
+        var slot = ((movementSequence.bits * HASH_MULTIPLIER) ushr 32).toInt() and mask
+        while (keys[slot] != FREE_SLOT && keys[slot] != movementSequence.bits) {
+            slot = (slot + 1) and mask
+        }
+        return slot
+    }
+
+    operator fun get(movementSequence: PackedMovementSequence): KeyboardAction? =
+        if (movementSequence.isExact) values[slotOf(movementSequence)] else null
+
+    operator fun get(movementSequence: MovementSequence): KeyboardAction? =
+        if (movementSequence.size > PackedMovementSequence.MAX_SIZE) {
+            overflow[movementSequence]
+        } else {
+            get(movementSequence.pack())
+        }
+
+    fun containsKey(movementSequence: PackedMovementSequence): Boolean =
+        get(movementSequence) != null
+
+    fun containsKey(movementSequence: MovementSequence): Boolean = get(movementSequence) != null
+}
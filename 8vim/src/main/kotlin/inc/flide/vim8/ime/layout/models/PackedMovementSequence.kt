@@ -0,0 +1,86 @@
+package inc.flide.vim8.ime.layout.models
+
+import kotlin.math.min
+
+private const val BITS_PER_POSITION = 3
+private const val POSITION_MASK = (1L shl BITS_PER_POSITION) - 1
+private const val SIZE_SHIFT = PackedMovementSequence.MAX_SIZE * BITS_PER_POSITION
+private const val POSITIONS_MASK = (1L shl SIZE_SHIFT) - 1
+private const val MAX_TRACKED_SIZE = 31
+private val FINGER_POSITIONS = FingerPosition.values()
+
+/**
+ * A [MovementSequence] packed into a single long: 3 bits per [FingerPosition] for the first
+ * [MAX_SIZE] positions, followed by the length. Appending, prefix checks and equality are plain
+ * bit operations, so the packed form can be used as a primitive key without boxing.
+ *
+ * Sequences longer than [MAX_SIZE] keep counting their length (up to 31) but drop the extra
+ * positions; they are reported as not [isExact] and never match a packed key.
+ */
+@JvmInline
+value class PackedMovementSequence(val bits: Long) {
+    val size: Int
+        get() = (bits ushr SIZE_SHIFT).toInt()
+
+    val isExact: Boolean
+        get() = size <= MAX_SIZE
+
+    operator fun get(index: Int): FingerPosition =
+        FINGER_POSITIONS[((bits ushr (index * BITS_PER_POSITION)) and POSITION_MASK).toInt()]
+
+    operator fun plus(fingerPosition: FingerPosition): PackedMovementSequence {
+        val size = size
+        var positions = bits and POSITIONS_MASK
+        if (size < MAX_SIZE) {
+            positions = positions or
+                (fingerPosition.ordinal.toLong() shl (size * BITS_PER_POSITION))
+        }
+        return PackedMovementSequence(
+            positions or (min(size + 1, MAX_TRACKED_SIZE).toLong() shl SIZE_SHIFT)
+        )
+    }
+
+    operator fun plus(other: PackedMovementSequence): PackedMovementSequence {
+        var result = this
+        for (i in 0 until min(other.size, MAX_SIZE)) {
+            result += other[i]
+        }
+        return result
+    }
+
+    fun take(n: Int): PackedMovementSequence {
+        val count = min(n, min(size, MAX_SIZE))
+        val positions = bits and ((1L shl (count * BITS_PER_POSITION)) - 1)
+        return PackedMovementSequence(positions or (count.toLong() shl SIZE_SHIFT))
+    }
+
+    fun subSequence(fromIndex: Int, toIndex: Int): PackedMovementSequence {
+        val count = min(toIndex, min(size, MAX_SIZE)) - fromIndex
+        if (count <= 0) {
+            return EMPTY
+        }
+        val positions = (bits ushr (fromIndex * BITS_PER_POSITION)) and
+            ((1L shl (count * BITS_PER_POSITION)) - 1)
+        return PackedMovementSequence(positions or (count.toLong() shl SIZE_SHIFT))
+    }
+
+    fun removeRange(fromIndex: Int, toIndex: Int): PackedMovementSequence =
+        take(fromIndex) + subSequence(toIndex, size)
+
+    fun startsWith(prefix: PackedMovementSequence): Boolean =
+        prefix.size <= size && take(prefix.size) == prefix
+
+    fun toMovementSequence(): MovementSequence = List(min(size, MAX_SIZE)) { get(it) }
+
+    override fun toString(): String = toMovementSequence().joinToString(",")
+
+    companion object {
+        const val MAX_SIZE = 19
+        val EMPTY = PackedMovementSequence(0L)
+
+        fun of(movementSequence: MovementSequence): PackedMovementSequence =
+            movementSequence.fold(EMPTY) { acc, fingerPosition -> acc + fingerPosition }
+    }
+}
+
+fun MovementSequence.pack(): PackedMovementSequence = PackedMovementSequence.of(this)
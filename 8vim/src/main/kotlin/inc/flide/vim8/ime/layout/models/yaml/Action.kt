@@ -25,16 +25,19 @@ data class Action(
     companion object
 }
 
+private const val KEYCODE_PREFIX = "KEYCODE_"
+
 fun Action.keyCode(): Int {
-    return Option.catch {
-        val uppercaseKeyCodeString = keyCodeString.uppercase(Locale.getDefault())
-        val keyCode = KeyEvent.keyCodeFromString(uppercaseKeyCodeString)
-        if (keyCode == KeyEvent.KEYCODE_UNKNOWN) {
-            CustomKeycode.valueOf(uppercaseKeyCodeString).keyCode
-        } else {
-            keyCode
-        }
-    }.getOrElse { 0 }
+    // Most actions have no key code, skip the lookups that would all fail for them.
+    if (keyCodeString.isEmpty()) return KeyEvent.KEYCODE_UNKNOWN
+    val uppercaseKeyCodeString = keyCodeString.uppercase(Locale.getDefault())
+    // KeyEvent constants and custom key codes resolve without the framework, so that layouts can
+    // also be compiled off device.
+    return uppercaseKeyCodeString
+        .takeIf { it.startsWith(KEYCODE_PREFIX) }
+        ?.let { Option.catch { KeyEvent::class.java.getField(it).getInt(null) }.getOrNull() }
+        ?: Option.catch { CustomKeycode.valueOf(uppercaseKeyCodeString).keyCode }.getOrNull()
+        ?: Option.catch { KeyEvent.keyCodeFromString(uppercaseKeyCodeString) }.getOrElse { 0 }
 }
 
 fun Action?.isEmpty(): Boolean {
@@ -46,30 +46,11 @@ class Flags(val value: Int) {
                     "flag value must be positive"
                 )
             } else if (node.isTextual) {
-                when (node.textValue().uppercase()) {
-                    "META_SHIFT_ON" -> KeyEvent.META_SHIFT_ON
-                    "META_ALT_ON" -> KeyEvent.META_ALT_ON
-                    "META_SYM_ON" -> KeyEvent.META_SYM_ON
-                    "META_FUNCTION_ON" -> KeyEvent.META_FUNCTION_ON
-                    "META_ALT_LEFT_ON" -> KeyEvent.META_ALT_LEFT_ON
-                    "META_ALT_RIGHT_ON" -> KeyEvent.META_ALT_RIGHT_ON
-                    "META_SHIFT_LEFT_ON" -> KeyEvent.META_SHIFT_LEFT_ON
-                    "META_SHIFT_RIGHT_ON" -> KeyEvent.META_SHIFT_RIGHT_ON
-                    "META_CTRL_ON" -> KeyEvent.META_CTRL_ON
-                    "META_CTRL_LEFT_ON" -> KeyEvent.META_CTRL_LEFT_ON
-                    "META_CTRL_RIGHT_ON" -> KeyEvent.META_CTRL_RIGHT_ON
-                    "META_META_ON" -> KeyEvent.META_META_ON
-                    "META_META_LEFT_ON" -> KeyEvent.META_META_LEFT_ON
-                    "META_META_RIGHT_ON" -> KeyEvent.META_META_RIGHT_ON
-                    "META_CAPS_LOCK_ON" -> KeyEvent.META_CAPS_LOCK_ON
-                    "META_NUM_LOCK_ON" -> KeyEvent.META_NUM_LOCK_ON
-                    "META_SCROLL_LOCK_ON" -> KeyEvent.META_SCROLL_LOCK_ON
-                    else -> throw MismatchedInputException.from(
-                        p,
-                        null as Class<*>?,
-                        "unknown meta modifier"
-                    )
-                }
+                metaState(node.textValue()) ?: throw MismatchedInputException.from(
+                    p,
+                    null as Class<*>?,
+                    "unknown meta modifier"
+                )
             } else {
                 throw MismatchedInputException.from(
                     p,
@@ -84,5 +65,28 @@ class Flags(val value: Int) {
         fun empty(): Flags {
             return Flags(0)
         }
+
+        fun metaState(name: String): Int? {
+            return when (name.uppercase()) {
+                "META_SHIFT_ON" -> KeyEvent.META_SHIFT_ON
+                "META_ALT_ON" -> KeyEvent.META_ALT_ON
+                "META_SYM_ON" -> KeyEvent.META_SYM_ON
+                "META_FUNCTION_ON" -> KeyEvent.META_FUNCTION_ON
+                "META_ALT_LEFT_ON" -> KeyEvent.META_ALT_LEFT_ON
+                "META_ALT_RIGHT_ON" -> KeyEvent.META_ALT_RIGHT_ON
+                "META_SHIFT_LEFT_ON" -> KeyEvent.META_SHIFT_LEFT_ON
+                "META_SHIFT_RIGHT_ON" -> KeyEvent.META_SHIFT_RIGHT_ON
+                "META_CTRL_ON" -> KeyEvent.META_CTRL_ON
+                "META_CTRL_LEFT_ON" -> KeyEvent.META_CTRL_LEFT_ON
+                "META_CTRL_RIGHT_ON" -> KeyEvent.META_CTRL_RIGHT_ON
+                "META_META_ON" -> KeyEvent.META_META_ON
+                "META_META_LEFT_ON" -> KeyEvent.META_META_LEFT_ON
+                "META_META_RIGHT_ON" -> KeyEvent.META_META_RIGHT_ON
+                "META_CAPS_LOCK_ON" -> KeyEvent.META_CAPS_LOCK_ON
+                "META_NUM_LOCK_ON" -> KeyEvent.META_NUM_LOCK_ON
+                "META_SCROLL_LOCK_ON" -> KeyEvent.META_SCROLL_LOCK_ON
+                else -> null
+            }
+        }
     }
 }
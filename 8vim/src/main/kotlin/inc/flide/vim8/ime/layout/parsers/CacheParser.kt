@@ -1,27 +1,53 @@
 package inc.flide.vim8.ime.layout.parsers
 
+import arrow.core.Either
 import arrow.core.Option
+import arrow.core.left
+import arrow.core.raise.catch
+import arrow.core.right
 import arrow.integrations.jackson.module.registerArrowModule
 import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper
 import com.fasterxml.jackson.module.kotlin.readValue
 import com.fasterxml.jackson.module.kotlin.registerKotlinModule
 import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
+import inc.flide.vim8.ime.layout.models.error.LayoutError
 import java.io.File
+import java.io.InputStream
 
 interface CacheParser {
+    val fileExtension: String
+
+    /**
+     * Version of the files written, to be bumped whenever [KeyboardData] or its encoding changes
+     * so that the entries already cached are dropped.
+     */
+    val formatVersion: Int
     fun load(file: File): Option<KeyboardData>
     fun save(file: File, keyboardData: KeyboardData): Boolean
 }
 
-class CborParser : CacheParser {
+/**
+ * Reads and writes [KeyboardData] as CBOR, both for the layout cache and for the layouts compiled
+ * at build time.
+ */
+class CborParser : CacheParser, LayoutParser {
     private val mapper = CBORMapper()
         .registerKotlinModule()
         .registerArrowModule()
 
+    override val fileExtension = "cbor"
+    override val formatVersion = 1
+
     override fun load(file: File): Option<KeyboardData> = Option.catch {
         mapper.readValue(file)
     }
 
     override fun save(file: File, keyboardData: KeyboardData): Boolean =
         Option.catch { mapper.writeValue(file, keyboardData) }.isSome()
+
+    override fun readKeyboardData(inputStream: InputStream?): Either<LayoutError, KeyboardData> =
+        catch({
+            mapper.readValue<KeyboardData>(inputStream!!).right()
+        }) { exception: Exception -> ExceptionWrapperError(exception).left() }
 }
@@ -0,0 +1,28 @@
+package inc.flide.vim8.ime.layout.parsers
+
+import arrow.core.Option
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import java.io.File
+
+/**
+ * Saves with [primary], or with [fallback] the layouts [primary] cannot save, such as those with
+ * movement sequences too long for [FlatParser]. Loading tries [primary] first, which must reject
+ * the files of [fallback].
+ */
+class FallbackCacheParser(
+    private val primary: CacheParser,
+    private val fallback: CacheParser
+) : CacheParser {
+    override val fileExtension = primary.fileExtension
+
+    // Either format changing drops the cached entries.
+    override val formatVersion = primary.formatVersion * 1000 + fallback.formatVersion
+
+    override fun load(file: File): Option<KeyboardData> {
+        val keyboardData = primary.load(file)
+        return if (keyboardData.isSome()) keyboardData else fallback.load(file)
+    }
+
+    override fun save(file: File, keyboardData: KeyboardData): Boolean =
+        primary.save(file, keyboardData) || fallback.save(file, keyboardData)
+}
@@ -0,0 +1,239 @@
+package inc.flide.vim8.ime.layout.parsers
+
+import arrow.core.Option
+import inc.flide.vim8.ime.layout.models.CharacterSet
+import inc.flide.vim8.ime.layout.models.KeyboardAction
+import inc.flide.vim8.ime.layout.models.KeyboardActionType
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import inc.flide.vim8.ime.layout.models.MovementSequence
+import inc.flide.vim8.ime.layout.models.PackedMovementSequence
+import inc.flide.vim8.ime.layout.models.pack
+import inc.flide.vim8.ime.layout.models.yaml.Contact
+import inc.flide.vim8.ime.layout.models.yaml.LayoutInfo
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Flat binary layout of a [KeyboardData], all values big endian:
+ *
+ * ```
+ * file          := header info characterSet{characterSets} key{actions} action{actions} strings
+ * header        := MAGIC:int VERSION:int length:int actions:int characterSets:int strings:int
+ * info          := name:string description:string rtl:int contactName:string contactEmail:string
+ * characterSet  := lowerCase:string upperCase:string
+ * key           := packed movement sequence:long, in ascending order
+ * action        := type:int text:string capsLockText:string keyCode:int flags:int layer:int
+ * strings       := (offset:int length:int){strings} char*
+ * ```
+ *
+ * where `string` is an index in the string table. The file is memory mapped and read through
+ * views: looking an action up is a binary search over the keys and only decodes that action.
+ */
+class FlatParser : CacheParser {
+    override val fileExtension = "kbd"
+    override val formatVersion = VERSION
+
+    override fun load(file: File): Option<KeyboardData> = Option.catch {
+        val buffer = FileChannel.open(file.toPath(), StandardOpenOption.READ).use {
+            it.map(FileChannel.MapMode.READ_ONLY, 0, it.size())
+        }
+        FlatKeyboardData(buffer).keyboardData
+    }
+
+    override fun save(file: File, keyboardData: KeyboardData): Boolean = Option.catch {
+        val buffer = write(keyboardData)
+        FileOutputStream(file).use {
+            while (buffer.hasRemaining()) {
+                it.channel.write(buffer)
+            }
+        }
+    }.isSome()
+
+    private fun write(keyboardData: KeyboardData): ByteBuffer {
+        check(keyboardData.actionMap.keys.all { it.size <= PackedMovementSequence.MAX_SIZE }) {
+            "Movement sequences longer than ${PackedMovementSequence.MAX_SIZE} cannot be packed"
+        }
+        val actions = keyboardData.actionMap.entries
+            .map { (movementSequence, action) -> movementSequence.pack().bits to action }
+            .sortedBy { it.first }
+        val strings = linkedMapOf<String, Int>()
+        val stringIndex = { string: String -> strings.getOrPut(string) { strings.size } }
+        val info = keyboardData.info
+        val infoStrings = listOf(info.name, info.description, info.contact.name, info.contact.email)
+            .map(stringIndex)
+        val characterSets = keyboardData.characterSets.map {
+            stringIndex(it.lowerCaseCharacters) to stringIndex(it.upperCaseCharacters)
+        }
+        val actionStrings = actions.map { (_, action) ->
+            stringIndex(action.text) to stringIndex(action.capsLockText)
+        }
+
+        val offsets = Offsets(actions.size, characterSets.size, strings.size)
+        val length = offsets.charsOffset + Char.SIZE_BYTES * strings.keys.sumOf { it.length }
+        val buffer = ByteBuffer.allocate(length)
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putInt(length)
+            .putInt(actions.size)
+            .putInt(characterSets.size)
+            .putInt(strings.size)
+            .putInt(infoStrings[0])
+            .putInt(infoStrings[1])
+            .putInt(if (info.rtl) 1 else 0)
+            .putInt(infoStrings[2])
+            .putInt(infoStrings[3])
+        characterSets.forEach { (lowerCase, upperCase) ->
+            buffer.putInt(lowerCase).putInt(upperCase)
+        }
+        actions.forEach { (key, _) -> buffer.putLong(key) }
+        actions.forEachIndexed { i, (_, action) ->
+            buffer.putInt(action.keyboardActionType.ordinal)
+                .putInt(actionStrings[i].first)
+                .putInt(actionStrings[i].second)
+                .putInt(action.keyEventCode)
+                .putInt(action.keyFlags)
+                .putInt(action.layer.ordinal)
+        }
+        var offset = 0
+        strings.keys.forEach {
+            buffer.putInt(offset).putInt(it.length)
+            offset += it.length
+        }
+        strings.keys.forEach { string -> string.forEach { buffer.putChar(it) } }
+        buffer.flip()
+        return buffer
+    }
+
+    internal companion object {
+        const val MAGIC = 0x38564B44 // "8VKD"
+        const val VERSION = 1
+    }
+}
+
+private const val HEADER_SIZE = 6 * Int.SIZE_BYTES
+private const val INFO_SIZE = 5 * Int.SIZE_BYTES
+private const val CHARACTER_SET_SIZE = 2 * Int.SIZE_BYTES
+private const val ACTION_SIZE = 6 * Int.SIZE_BYTES
+private const val STRING_SIZE = 2 * Int.SIZE_BYTES
+private val ACTION_TYPES = KeyboardActionType.values()
+private val LAYER_LEVELS = LayerLevel.values()
+
+private class Offsets(actions: Int, characterSets: Int, strings: Int) {
+    val infoOffset = HEADER_SIZE
+    val characterSetsOffset = infoOffset + INFO_SIZE
+    val keysOffset = characterSetsOffset + characterSets * CHARACTER_SET_SIZE
+    val actionsOffset = keysOffset + actions * Long.SIZE_BYTES
+    val stringsOffset = actionsOffset + actions * ACTION_SIZE
+    val charsOffset = stringsOffset + strings * STRING_SIZE
+}
+
+private class FlatKeyboardData(private val buffer: ByteBuffer) {
+    private val actions: Int
+    private val offsets: Offsets
+
+    init {
+        check(buffer.getInt(0) == FlatParser.MAGIC) { "Not a flat keyboard data file" }
+        check(buffer.getInt(4) == FlatParser.VERSION) { "Unsupported version" }
+        check(buffer.getInt(8) == buffer.capacity()) { "Truncated file" }
+        actions = buffer.getInt(12)
+        offsets = Offsets(actions, buffer.getInt(16), buffer.getInt(20))
+    }
+
+    val keyboardData: KeyboardData
+        get() = KeyboardData(
+            actionMap = FlatActionMap(),
+            characterSets = List(buffer.getInt(16)) {
+                val offset = offsets.characterSetsOffset + it * CHARACTER_SET_SIZE
+                CharacterSet(string(buffer.getInt(offset)), string(buffer.getInt(offset + 4)))
+            },
+            info = LayoutInfo(
+                name = string(buffer.getInt(offsets.infoOffset)),
+                description = string(buffer.getInt(offsets.infoOffset + 4)),
+                rtl = buffer.getInt(offsets.infoOffset + 8) != 0,
+                contact = Contact(
+                    string(buffer.getInt(offsets.infoOffset + 12)),
+                    string(buffer.getInt(offsets.infoOffset + 16))
+                )
+            )
+        )
+
+    private fun string(index: Int): String {
+        val offset = buffer.getInt(offsets.stringsOffset + index * STRING_SIZE)
+        val length = buffer.getInt(offsets.stringsOffset + index * STRING_SIZE + 4)
+        val start = offsets.charsOffset + offset * Char.SIZE_BYTES
+        return String(CharArray(length) { buffer.getChar(start + it * Char.SIZE_BYTES) })
+    }
+
+    private fun key(index: Int): Long = buffer.getLong(offsets.keysOffset + index * Long.SIZE_BYTES)
+
+    private fun movementSequence(index: Int): MovementSequence =
+        PackedMovementSequence(key(index)).toMovementSequence()
+
+    private fun indexOf(movementSequence: MovementSequence): Int {
+        if (movementSequence.size > PackedMovementSequence.MAX_SIZE) {
+            return -1
+        }
+        val bits = movementSequence.pack().bits
+        var low = 0
+        var high = actions - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val key = key(middle)
+            when {
+                key < bits -> low = middle + 1
+                key > bits -> high = middle - 1
+                else -> return middle
+            }
+        }
+        return -1
+    }
+
+    private inner class FlatActionMap : AbstractMap<MovementSequence, KeyboardAction>() {
+        private val decoded = arrayOfNulls<KeyboardAction>(actions)
+
+        override val size: Int
+            get() = actions
+
+        override val entries: Set<Map.Entry<MovementSequence, KeyboardAction>> =
+            object : AbstractSet<Map.Entry<MovementSequence, KeyboardAction>>() {
+                override val size: Int
+                    get() = actions
+
+                override fun iterator(): Iterator<Map.Entry<MovementSequence, KeyboardAction>> =
+                    (0 until actions).asSequence()
+                        .map { FlatEntry(movementSequence(it), action(it)) }
+                        .iterator()
+            }
+
+        override fun get(key: MovementSequence): KeyboardAction? =
+            indexOf(key).let { if (it < 0) null else action(it) }
+
+        override fun containsKey(key: MovementSequence): Boolean = indexOf(key) >= 0
+
+        private fun action(index: Int): KeyboardAction = decoded[index] ?: run {
+            val offset = offsets.actionsOffset + index * ACTION_SIZE
+            KeyboardAction(
+                keyboardActionType = ACTION_TYPES[buffer.getInt(offset)],
+                text = string(buffer.getInt(offset + 4)),
+                capsLockText = string(buffer.getInt(offset + 8)),
+                keyEventCode = buffer.getInt(offset + 12),
+                keyFlags = buffer.getInt(offset + 16),
+                layer = LAYER_LEVELS[buffer.getInt(offset + 20)]
+            ).also { decoded[index] = it }
+        }
+    }
+
+    private class FlatEntry(
+        override val key: MovementSequence,
+        override val value: KeyboardAction
+    ) : Map.Entry<MovementSequence, KeyboardAction> {
+        override fun equals(other: Any?): Boolean =
+            other is Map.Entry<*, *> && key == other.key && value == other.value
+
+        override fun hashCode(): Int = key.hashCode() xor value.hashCode()
+    }
+}
@@ -0,0 +1,139 @@
+package inc.flide.vim8.ime.layout.parsers
+
+import arrow.core.toMap
+import inc.flide.vim8.ime.layout.models.CHARACTER_SET_SIZE
+import inc.flide.vim8.ime.layout.models.CharacterPosition
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.KeyboardAction
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.KeyboardDataBuilder
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import inc.flide.vim8.ime.layout.models.MovementSequence
+import inc.flide.vim8.ime.layout.models.Quadrant
+import inc.flide.vim8.ime.layout.models.characterIndexInString
+import inc.flide.vim8.ime.layout.models.yaml.Action
+import inc.flide.vim8.ime.layout.models.yaml.Layer
+import inc.flide.vim8.ime.layout.models.yaml.Layout
+import inc.flide.vim8.ime.layout.models.yaml.isEmpty
+import inc.flide.vim8.ime.layout.models.yaml.keyCode
+import inc.flide.vim8.ime.layout.models.yaml.toLayerLevel
+
+/**
+ * Builds the [KeyboardData] of a validated [Layout], shared by the layout parsers so that they
+ * all produce the same actions and character sets.
+ */
+internal fun Layout.toKeyboardData(): KeyboardData {
+    val builder = KeyboardDataBuilder()
+    builder.info = info
+    builder.addHiddenActions(layers.hidden)
+
+    val layersToAdd = layers.defaultLayer
+        .map { LayerLevel.FIRST to it }
+        .toMap() + layers.extraLayers
+        .mapKeys { it.key.toLayerLevel() }
+
+    layersToAdd.forEach { (layerId, layer) -> builder.addLayer(layerId, layer) }
+    return builder.build()
+}
+
+private fun KeyboardDataBuilder.addLayer(layer: LayerLevel, layerData: Layer) {
+    val lowerCaseCharacters = StringBuilder()
+    val upperCaseCharacters = StringBuilder()
+    val characterSets = (lowerCaseCharacters to upperCaseCharacters)
+    layerData.sectors.forEach { (sector, value) ->
+        value.parts.forEach { (part, actions) ->
+            addActions(
+                layer = layer,
+                quadrant = Quadrant(sector, part),
+                actions = actions,
+                characterSets = characterSets
+            )
+        }
+    }
+    setLowerCaseCharacters(lowerCaseCharacters.toString(), layer)
+    setUpperCaseCharacters(upperCaseCharacters.toString(), layer)
+}
+
+private fun KeyboardDataBuilder.addHiddenActions(actions: List<Action>) {
+    actions
+        .filterNot { it.movementSequence.isEmpty() }
+        .forEach {
+            addAction(
+                it.movementSequence,
+                KeyboardAction(
+                    it.actionType,
+                    it.lowerCase,
+                    it.upperCase,
+                    it.keyCode(),
+                    it.flags.value,
+                    LayerLevel.HIDDEN
+                )
+            )
+        }
+}
+
+private fun KeyboardDataBuilder.addActions(
+    layer: LayerLevel,
+    quadrant: Quadrant,
+    actions: List<Action?>,
+    characterSets: Pair<StringBuilder, StringBuilder>
+) {
+    actions
+        .take(4)
+        .withIndex()
+        .filterNot { it.value.isEmpty() }
+        .forEach { (i, action) ->
+            val characterPosition = CharacterPosition.values()[i]
+            var movementSequence: MovementSequence = action!!.movementSequence
+            if (movementSequence.isEmpty()) {
+                movementSequence = FingerPosition.computeMovementSequence(
+                    layer,
+                    quadrant,
+                    characterPosition
+                )
+            }
+            val characterSetIndex: Int =
+                quadrant.characterIndexInString(characterPosition)
+            val updatedAction = if (action.lowerCase.isNotEmpty()) {
+                if (characterSets.first.isEmpty()) {
+                    characterSets.first.setLength(CHARACTER_SET_SIZE)
+                }
+                characterSets.first.setCharAt(characterSetIndex, action.lowerCase[0])
+                if (action.upperCase.isEmpty()) {
+                    action.copy(upperCase = action.lowerCase.uppercase())
+                } else {
+                    action
+                }
+            } else {
+                action
+            }
+            if (updatedAction.upperCase.isNotEmpty()) {
+                if (characterSets.second.isEmpty()) {
+                    characterSets.second.setLength(CHARACTER_SET_SIZE)
+                }
+                characterSets.second.setCharAt(
+                    characterSetIndex,
+                    updatedAction.upperCase[0]
+                )
+            }
+            val keyboardAction = KeyboardAction(
+                updatedAction.actionType,
+                updatedAction.lowerCase,
+                updatedAction.upperCase,
+                updatedAction.keyCode(),
+                updatedAction.flags.value,
+                layer
+            )
+            addAction(movementSequence, keyboardAction)
+            if (layer != LayerLevel.FIRST && action.movementSequence.isEmpty()) {
+                addAction(
+                    FingerPosition.computeQuickMovementSequence(
+                        layer,
+                        quadrant,
+                        characterPosition
+                    ),
+                    keyboardAction
+                )
+            }
+        }
+}
@@ -1,11 +1,9 @@
 package inc.flide.vim8.ime.layout.parsers
 
 import arrow.core.Either
-import arrow.core.fold
 import arrow.core.left
 import arrow.core.raise.catch
 import arrow.core.right
-import arrow.core.toMap
 import arrow.integrations.jackson.module.registerArrowModule
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.MapperFeature
@@ -20,30 +18,14 @@ import com.networknt.schema.JsonSchema
 import com.networknt.schema.JsonSchemaFactory
 import com.networknt.schema.SpecVersionDetector
 import com.networknt.schema.ValidationMessage
-import inc.flide.vim8.ime.layout.models.CHARACTER_SET_SIZE
-import inc.flide.vim8.ime.layout.models.CharacterPosition
-import inc.flide.vim8.ime.layout.models.FingerPosition
-import inc.flide.vim8.ime.layout.models.KeyboardAction
 import inc.flide.vim8.ime.layout.models.KeyboardData
-import inc.flide.vim8.ime.layout.models.LayerLevel
-import inc.flide.vim8.ime.layout.models.MovementSequence
-import inc.flide.vim8.ime.layout.models.Quadrant
-import inc.flide.vim8.ime.layout.models.addAllToActionMap
-import inc.flide.vim8.ime.layout.models.characterIndexInString
 import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
 import inc.flide.vim8.ime.layout.models.error.InvalidLayoutError
 import inc.flide.vim8.ime.layout.models.error.LayoutError
 import inc.flide.vim8.ime.layout.models.error.validationMessages
-import inc.flide.vim8.ime.layout.models.setLowerCaseCharacters
-import inc.flide.vim8.ime.layout.models.setUpperCaseCharacters
-import inc.flide.vim8.ime.layout.models.yaml.Action
 import inc.flide.vim8.ime.layout.models.yaml.Flags
 import inc.flide.vim8.ime.layout.models.yaml.Flags.FlagsDeserializer
-import inc.flide.vim8.ime.layout.models.yaml.Layer
 import inc.flide.vim8.ime.layout.models.yaml.Layout
-import inc.flide.vim8.ime.layout.models.yaml.isEmpty
-import inc.flide.vim8.ime.layout.models.yaml.keyCode
-import inc.flide.vim8.ime.layout.models.yaml.toLayerLevel
 import java.io.IOException
 import java.io.InputStream
 import java.text.MessageFormat
@@ -52,53 +34,21 @@ interface LayoutParser {
     fun readKeyboardData(inputStream: InputStream?): Either<LayoutError, KeyboardData>
 }
 
-class YamlParser : LayoutParser {
-    private val module = SimpleModule(FlagsDeserializer::class.qualifiedName)
-        .addDeserializer(
-            Flags::class,
-            FlagsDeserializer()
-        )
-    private val mapper: ObjectMapper =
-        YAMLMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
-            .propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
-            .addModule(module)
-            .build()
-            .registerKotlinModule()
-            .registerArrowModule()
-    private var schema: JsonSchema
-
-    init {
-        LayoutParser::class.java.getResourceAsStream("/schema.json")
-            .use { schemaInputStream ->
-                val schemaJson = mapper.readTree(schemaInputStream)
-                val factory = JsonSchemaFactory.builder(
-                    JsonSchemaFactory.getInstance(SpecVersionDetector.detect(schemaJson))
-                )
-                    .objectMapper(mapper)
-                    .build()
-                schema = factory.getSchema(schemaJson)
-            }
-    }
-
+/**
+ * Parses layouts validated against `schema.json`.
+ *
+ * A [trusted] parser skips the validation and deserializes the layout directly, for the embedded
+ * layouts which the build already validated.
+ */
+class YamlParser(private val trusted: Boolean = false) : LayoutParser {
     override fun readKeyboardData(inputStream: InputStream?): Either<LayoutError, KeyboardData> {
         return catch({
-            validateYaml(mapper.readTree(inputStream))
-                .map { layout ->
-                    val keyboardData = KeyboardData(
-                        info = layout.info,
-                        actionMap = getActionMap(layout.layers.hidden)
-                    )
-
-                    val layersToAdd = layout.layers.defaultLayer
-                        .map { LayerLevel.FIRST to it }
-                        .toMap() + layout.layers.extraLayers
-                        .mapKeys { it.key.toLayerLevel() }
-
-                    layersToAdd
-                        .fold(keyboardData) { acc, (layerId, layer) ->
-                            addLayer(acc, layerId, layer)
-                        }
-                }
+            if (trusted) {
+                mapper.readValue(inputStream, Layout::class.java).toKeyboardData().right()
+            } else {
+                validateYaml(mapper.readTree(inputStream))
+                    .map { it.toKeyboardData() }
+            }
         }) { exception: IOException ->
             ExceptionWrapperError(exception).left()
         }
@@ -130,112 +80,32 @@ class YamlParser : LayoutParser {
             }
     }
 
-    private fun addLayer(
-        keyboardData: KeyboardData,
-        layer: LayerLevel,
-        layerData: Layer
-    ): KeyboardData {
-        val lowerCaseCharacters = StringBuilder()
-        val upperCaseCharacters = StringBuilder()
-        val characterSets = (lowerCaseCharacters to upperCaseCharacters)
-        return layerData.sectors.fold(keyboardData) { acc, (sector, value) ->
-            value.parts.fold(acc) { acc1, (part, actions) ->
-                acc1.addAllToActionMap(
-                    getActionMap(
-                        layer = layer,
-                        quadrant = Quadrant(sector, part),
-                        actions = actions,
-                        characterSets = characterSets
-                    )
-                )
-            }
-        }
-            .setLowerCaseCharacters(lowerCaseCharacters.toString(), layer)
-            .setUpperCaseCharacters(upperCaseCharacters.toString(), layer)
-    }
-
-    private fun getActionMap(actions: List<Action>): Map<MovementSequence, KeyboardAction> {
-        return actions
-            .filterNot { it.movementSequence.isEmpty() }
-            .associateBy({ it.movementSequence }, {
-                KeyboardAction(
-                    it.actionType,
-                    it.lowerCase,
-                    it.upperCase,
-                    it.keyCode(),
-                    it.flags.value,
-                    LayerLevel.HIDDEN
-                )
-            })
-    }
+    private companion object {
+        private val module = SimpleModule(FlagsDeserializer::class.qualifiedName)
+            .addDeserializer(
+                Flags::class,
+                FlagsDeserializer()
+            )
+        private val mapper: ObjectMapper =
+            YAMLMapper.builder().enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+                .propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+                .addModule(module)
+                .build()
+                .registerKotlinModule()
+                .registerArrowModule()
 
-    private fun getActionMap(
-        layer: LayerLevel,
-        quadrant: Quadrant,
-        actions: List<Action?>,
-        characterSets: Pair<StringBuilder, StringBuilder>
-    ): Map<MovementSequence, KeyboardAction> {
-        return actions
-            .take(4)
-            .withIndex()
-            .filterNot { it.value.isEmpty() }
-            .fold(emptyMap()) { acc, (i, action) ->
-                val characterPosition = CharacterPosition.values()[i]
-                var movementSequence: MovementSequence = action!!.movementSequence
-                if (movementSequence.isEmpty()) {
-                    movementSequence = FingerPosition.computeMovementSequence(
-                        layer,
-                        quadrant,
-                        characterPosition
+        // Shared by all the parsers and only compiled once a layout actually needs validating.
+        private val schema: JsonSchema by lazy {
+            LayoutParser::class.java.getResourceAsStream("/schema.json")
+                .use { schemaInputStream ->
+                    val schemaJson = mapper.readTree(schemaInputStream)
+                    val factory = JsonSchemaFactory.builder(
+                        JsonSchemaFactory.getInstance(SpecVersionDetector.detect(schemaJson))
                     )
+                        .objectMapper(mapper)
+                        .build()
+                    factory.getSchema(schemaJson)
                 }
-                val characterSetIndex: Int =
-                    quadrant.characterIndexInString(characterPosition)
-                val updatedAction = if (action.lowerCase.isNotEmpty()) {
-                    if (characterSets.first.isEmpty()) {
-                        characterSets.first.setLength(CHARACTER_SET_SIZE)
-                    }
-                    characterSets.first.setCharAt(characterSetIndex, action.lowerCase[0])
-                    if (action.upperCase.isEmpty()) {
-                        action.copy(upperCase = action.lowerCase.uppercase())
-                    } else {
-                        action
-                    }
-                } else {
-                    action
-                }
-                if (updatedAction.upperCase.isNotEmpty()) {
-                    if (characterSets.second.isEmpty()) {
-                        characterSets.second.setLength(CHARACTER_SET_SIZE)
-                    }
-                    characterSets.second.setCharAt(
-                        characterSetIndex,
-                        updatedAction.upperCase[0]
-                    )
-                }
-                val keyboardAction = KeyboardAction(
-                    updatedAction.actionType,
-                    updatedAction.lowerCase,
-                    updatedAction.upperCase,
-                    updatedAction.keyCode(),
-                    updatedAction.flags.value,
-                    layer
-                )
-                val baseActionMap = movementSequence to keyboardAction
-                val actionMap = when {
-                    layer != LayerLevel.FIRST && action.movementSequence.isEmpty() -> mapOf(
-                        baseActionMap,
-                        FingerPosition.computeQuickMovementSequence(
-                            layer,
-                            quadrant,
-                            characterPosition
-                        ) to keyboardAction
-                    )
-
-                    else -> mapOf(baseActionMap)
-                }
-
-                acc + actionMap
-            }
+        }
     }
 }
@@ -0,0 +1,514 @@
+package inc.flide.vim8.ime.layout.parsers
+
+import arrow.core.Either
+import arrow.core.left
+import arrow.core.raise.catch
+import arrow.core.right
+import arrow.core.some
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.networknt.schema.ValidationMessage
+import com.networknt.schema.ValidatorTypeCode
+import inc.flide.vim8.ime.layout.models.Direction
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.KeyboardActionType
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.MovementSequence
+import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
+import inc.flide.vim8.ime.layout.models.error.InvalidLayoutError
+import inc.flide.vim8.ime.layout.models.error.LayoutError
+import inc.flide.vim8.ime.layout.models.yaml.Action
+import inc.flide.vim8.ime.layout.models.yaml.Contact
+import inc.flide.vim8.ime.layout.models.yaml.ExtraLayer
+import inc.flide.vim8.ime.layout.models.yaml.Flags
+import inc.flide.vim8.ime.layout.models.yaml.Layer
+import inc.flide.vim8.ime.layout.models.yaml.Layers
+import inc.flide.vim8.ime.layout.models.yaml.Layout
+import inc.flide.vim8.ime.layout.models.yaml.LayoutInfo
+import inc.flide.vim8.ime.layout.models.yaml.Part
+import java.io.IOException
+import java.io.InputStream
+import java.text.MessageFormat
+
+/**
+ * Reads a layout in a single pass over the YAML token stream, checking the rules of
+ * `schema.json` while the layout is built instead of validating a whole tree first.
+ *
+ * Errors are reported with the same paths as [YamlParser], which stays the reference
+ * implementation of the schema and is used to compile the embedded layouts.
+ */
+class StreamingYamlParser : LayoutParser {
+    private val factory = YAMLFactory()
+
+    override fun readKeyboardData(inputStream: InputStream?): Either<LayoutError, KeyboardData> {
+        return catch({
+            factory.createParser(inputStream).use { parser ->
+                val reader = LayoutReader(parser)
+                val layout = reader.readLayout()
+                if (reader.errors.isEmpty()) {
+                    layout.toKeyboardData().right()
+                } else {
+                    InvalidLayoutError(reader.errors).left()
+                }
+            }
+        }) { exception: IOException ->
+            ExceptionWrapperError(exception).left()
+        }
+    }
+}
+
+private const val ROOT = "$"
+private const val OBJECT = "object"
+private const val ARRAY = "array"
+private const val STRING = "string"
+private const val INTEGER = "integer"
+private const val NUMBER = "number"
+private const val BOOLEAN = "boolean"
+private const val NULL = "null"
+private const val MAX_ACTIONS = 4
+
+private const val CUSTOM_FORMAT = "{0}: {1}"
+private const val TYPE_FORMAT = "{0}: {1} found, {2} expected"
+private const val ADDITIONAL_PROPERTIES_FORMAT =
+    "{0}.{1}: is not defined in the schema and the schema does not allow additional properties"
+private const val REQUIRED_FORMAT = "{0}.{1}: is missing but it is required"
+private const val MINIMUM_FORMAT = "{0}: must have a minimum value of {1}"
+private const val FORMAT_FORMAT = "{0}: does not match the {1} pattern {2}"
+
+private const val TYPE_MESSAGE = "Invalid type"
+private const val TYPE_PATTERN_MESSAGE = "type can only be one of: [input_text, input_key]"
+private const val FLAG_MESSAGE = "Valid flag: [meta_shift_on, meta_alt_on, meta_sym_on, " +
+    "meta_function_on, meta_alt_left_on, meta_alt_right_on, meta_shift_left_on, " +
+    "meta_shift_right_on, meta_ctrl_on, meta_ctrl_left_on, meta_ctrl_right_on, meta_meta_on, " +
+    "meta_meta_left_on, meta_meta_right_on, meta_caps_lock_on, meta_num_lock_on, " +
+    "meta_scroll_lock_on]"
+private const val KEY_CODE_MESSAGE = "Must be one of a valid android KeyCode or one of: " +
+    "[move_current_end_point_left, move_current_end_point_right, move_current_end_point_up, " +
+    "move_current_end_point_down, selection_start, select_all, toggle_selection_anchor, " +
+    "shift_toggle, switch_to_main_keypad, switch_to_number_keypad, switch_to_symbols_keypad, " +
+    "switch_to_selection_keypad, switch_to_emoticon_keyboard, hide_keyboard, no_operation]"
+private const val FINGER_POSITION_MESSAGE = "Finger position can only be one of: " +
+    "[no_touch, inside_circle, top, left, bottom right, long_press, long_press_end]"
+private const val LOWER_CASE_MESSAGE = "lower_case is required for input_text type"
+private const val MAX_ACTIONS_MESSAGE = "There is only up to 4 actions per sectors/parts"
+private const val TOP_BOTTOM_PARTS_MESSAGE =
+    "Only top/bottom parts are valid for left/right sectors"
+private const val LEFT_RIGHT_PARTS_MESSAGE =
+    "Only left/right parts are valid for top/bottom sectors"
+private const val EXTRA_LAYERS_MESSAGE =
+    "extra_layers can only have [first, second, third, fourth, fifth]"
+private const val DEFAULT_REQUIRED_MESSAGE = "Default layer is required if extra_layers is defined"
+private const val DEFAULT_OR_HIDDEN_MESSAGE = "default or hidden is required"
+
+private val TYPE_PATTERN = Regex("^(?i)(input_text|input_key)$")
+private val INPUT_TEXT_PATTERN = Regex("^(?i)(input_text)$")
+private val FLAG_PATTERN = Regex(
+    "^(?i)(meta_shift_on|meta_alt_on|meta_sym_on|meta_function_on|meta_alt_left_on|" +
+        "meta_alt_right_on|meta_shift_left_on|meta_shift_right_on|meta_ctrl_on|" +
+        "meta_ctrl_left_on|meta_ctrl_right_on|meta_meta_on|meta_meta_left_on|" +
+        "meta_meta_right_on|meta_caps_lock_on|meta_num_lock_on|meta_scroll_lock_on)$"
+)
+private val KEY_CODE_PATTERN = Regex(
+    "^(?i)(keycode_.+|move_current_end_point_left|move_current_end_point_right|" +
+        "move_current_end_point_up|move_current_end_point_down|selection_start|select_all|" +
+        "toggle_selection_anchor|shift_toggle|switch_to_main_keypad|switch_to_number_keypad|" +
+        "switch_to_symbols_keypad|switch_to_selection_keypad|switch_to_emoticon_keyboard|" +
+        "hide_keyboard|no_operation)$"
+)
+private val FINGER_POSITION_PATTERN =
+    Regex("^(?i)(no_touch|inside_circle|top|left|bottom|right|long_press|long_press_end)$")
+private val EMAIL_PATTERN = Regex("^[^@\\s]+@[^@\\s]+$")
+
+/**
+ * Walks the tokens of one layout document, collecting the schema violations in [errors].
+ *
+ * Every `read` function starts on the first token of its value and leaves the parser on the
+ * last one, skipping whatever it rejects.
+ */
+private class LayoutReader(private val parser: JsonParser) {
+    val errors = linkedSetOf<ValidationMessage>()
+
+    fun readLayout(): Layout {
+        parser.nextToken()
+        var layout = Layout()
+        if (!expect(ROOT, OBJECT)) {
+            return layout
+        }
+        var hasLayers = false
+        readObject(ROOT) { name, path ->
+            when (name) {
+                "info" -> layout = layout.copy(info = readInfo(path))
+                "layers" -> {
+                    hasLayers = true
+                    layout = layout.copy(layers = readLayers(path))
+                }
+
+                else -> return@readObject false
+            }
+            true
+        }
+        if (!hasLayers) {
+            report(ValidatorTypeCode.REQUIRED, ROOT, REQUIRED_FORMAT, "layers")
+        }
+        return layout
+    }
+
+    private fun readInfo(path: String): LayoutInfo {
+        var info = LayoutInfo()
+        if (!expect(path, OBJECT)) {
+            return info
+        }
+        readObject(path) { name, propertyPath ->
+            when (name) {
+                "name" -> readString(propertyPath)?.let { info = info.copy(name = it) }
+                "description" -> readString(propertyPath)
+                    ?.let { info = info.copy(description = it) }
+
+                "rtl" -> readBoolean(propertyPath)?.let { info = info.copy(rtl = it) }
+                "contact" -> info = info.copy(contact = readContact(propertyPath))
+                else -> return@readObject false
+            }
+            true
+        }
+        return info
+    }
+
+    private fun readContact(path: String): Contact {
+        var contact = Contact()
+        if (!expect(path, OBJECT)) {
+            return contact
+        }
+        readObject(path) { name, propertyPath ->
+            when (name) {
+                "name" -> readString(propertyPath)?.let { contact = contact.copy(name = it) }
+                "email" -> readString(propertyPath)?.let {
+                    if (!EMAIL_PATTERN.containsMatchIn(it)) {
+                        report(
+                            ValidatorTypeCode.FORMAT,
+                            propertyPath,
+                            FORMAT_FORMAT,
+                            "email",
+                            EMAIL_PATTERN.pattern
+                        )
+                    }
+                    contact = contact.copy(email = it)
+                }
+
+                else -> return@readObject false
+            }
+            true
+        }
+        return contact
+    }
+
+    private fun readLayers(path: String): Layers {
+        var layers = Layers()
+        if (!expect(path, OBJECT)) {
+            return layers
+        }
+        val names = mutableSetOf<String>()
+        readObject(path) { name, propertyPath ->
+            when (name) {
+                "hidden" -> layers = layers.copy(hidden = readActions(propertyPath))
+                "default" -> layers = layers.copy(defaultLayer = readLayer(propertyPath).some())
+                "extra_layers" ->
+                    layers = layers.copy(extraLayers = readExtraLayers(propertyPath))
+
+                else -> return@readObject false
+            }
+            names += name
+            true
+        }
+        if ("extra_layers" in names && "default" !in names) {
+            report(ValidatorTypeCode.REQUIRED, path, CUSTOM_FORMAT, DEFAULT_REQUIRED_MESSAGE)
+        } else if (names.none { it == "default" || it == "hidden" }) {
+            report(ValidatorTypeCode.REQUIRED, path, CUSTOM_FORMAT, DEFAULT_OR_HIDDEN_MESSAGE)
+        }
+        return layers
+    }
+
+    private fun readExtraLayers(path: String): Map<ExtraLayer, Layer> {
+        val extraLayers = LinkedHashMap<ExtraLayer, Layer>()
+        if (!expect(path, OBJECT)) {
+            return extraLayers
+        }
+        readObject(path, EXTRA_LAYERS_MESSAGE) { name, propertyPath ->
+            val extraLayer = enumOf<ExtraLayer>(name) ?: return@readObject false
+            extraLayers[extraLayer] = readLayer(propertyPath)
+            true
+        }
+        return extraLayers
+    }
+
+    private fun readLayer(path: String): Layer {
+        val sectors = LinkedHashMap<Direction, Part>()
+        if (!expect(path, OBJECT)) {
+            return Layer(sectors)
+        }
+        readObject(path) { name, propertyPath ->
+            if (name != "sectors") {
+                return@readObject false
+            }
+            if (expect(propertyPath, OBJECT)) {
+                readObject(propertyPath) { sectorName, sectorPath ->
+                    val sector = enumOf<Direction>(sectorName) ?: return@readObject false
+                    sectors[sector] = readSector(sectorPath, sector)
+                    true
+                }
+            }
+            true
+        }
+        return Layer(sectors)
+    }
+
+    private fun readSector(path: String, sector: Direction): Part {
+        val parts = LinkedHashMap<Direction, List<Action>>()
+        if (!expect(path, OBJECT)) {
+            return Part(parts)
+        }
+        var hasParts = false
+        readObject(path) { name, propertyPath ->
+            if (name != "parts") {
+                return@readObject false
+            }
+            hasParts = true
+            readParts(propertyPath, sector, parts)
+            true
+        }
+        if (!hasParts) {
+            report(ValidatorTypeCode.REQUIRED, path, REQUIRED_FORMAT, "parts")
+        }
+        return Part(parts)
+    }
+
+    private fun readParts(
+        path: String,
+        sector: Direction,
+        parts: MutableMap<Direction, List<Action>>
+    ) {
+        if (!expect(path, OBJECT)) {
+            return
+        }
+        val horizontal = sector == Direction.LEFT || sector == Direction.RIGHT
+        val message = if (horizontal) TOP_BOTTOM_PARTS_MESSAGE else LEFT_RIGHT_PARTS_MESSAGE
+        readObject(path, message) { name, propertyPath ->
+            val part = enumOf<Direction>(name)
+                ?.takeIf { (it == Direction.TOP || it == Direction.BOTTOM) == horizontal }
+                ?: return@readObject false
+            parts[part] = readActions(propertyPath, MAX_ACTIONS)
+            true
+        }
+    }
+
+    private fun readActions(path: String, maxItems: Int = Int.MAX_VALUE): List<Action> {
+        val actions = ArrayList<Action>()
+        if (!expect(path, ARRAY)) {
+            return actions
+        }
+        readArray { actions += readAction("$path[${actions.size}]") }
+        if (actions.size > maxItems) {
+            report(ValidatorTypeCode.MAX_ITEMS, path, CUSTOM_FORMAT, MAX_ACTIONS_MESSAGE)
+        }
+        return actions
+    }
+
+    /**
+     * Reads an action, a `null` one being read as an empty action which is skipped the same way
+     * when building the layer.
+     */
+    private fun readAction(path: String): Action {
+        var action = Action()
+        if (!expect(path, OBJECT, NULL) || parser.currentToken() == JsonToken.VALUE_NULL) {
+            return action
+        }
+        var hasType = false
+        var inputText = false
+        var hasLowerCase = false
+        readObject(path) { name, propertyPath ->
+            when (name) {
+                "type" -> {
+                    hasType = true
+                    val type = readString(propertyPath, TYPE_MESSAGE)
+                    inputText = type != null && INPUT_TEXT_PATTERN.containsMatchIn(type)
+                    if (type != null &&
+                        matches(propertyPath, type, TYPE_PATTERN, TYPE_PATTERN_MESSAGE)
+                    ) {
+                        val actionType = KeyboardActionType.valueOf(type.uppercase())
+                        action = action.copy(actionType = actionType)
+                    }
+                }
+
+                "lower_case" -> {
+                    hasLowerCase = true
+                    readString(propertyPath)?.let { action = action.copy(lowerCase = it) }
+                }
+
+                "upper_case" -> readString(propertyPath)
+                    ?.let { action = action.copy(upperCase = it) }
+
+                "key_code" -> readString(propertyPath)
+                    ?.takeIf { matches(propertyPath, it, KEY_CODE_PATTERN, KEY_CODE_MESSAGE) }
+                    ?.let { action = action.copy(keyCodeString = it) }
+
+                "movement_sequence" ->
+                    action = action.copy(movementSequence = readMovementSequence(propertyPath))
+
+                "flags" -> action = action.copy(flags = Flags(readFlags(propertyPath)))
+                else -> return@readObject false
+            }
+            true
+        }
+        if ((!hasType || inputText) && !hasLowerCase) {
+            report(ValidatorTypeCode.REQUIRED, path, CUSTOM_FORMAT, LOWER_CASE_MESSAGE)
+        }
+        return action
+    }
+
+    private fun readMovementSequence(path: String): MovementSequence {
+        val movementSequence = ArrayList<FingerPosition>()
+        if (!expect(path, ARRAY)) {
+            return movementSequence
+        }
+        var index = 0
+        readArray {
+            val itemPath = "$path[${index++}]"
+            readString(itemPath)
+                ?.takeIf {
+                    matches(itemPath, it, FINGER_POSITION_PATTERN, FINGER_POSITION_MESSAGE)
+                }
+                ?.let { movementSequence += FingerPosition.valueOf(it.uppercase()) }
+        }
+        return movementSequence
+    }
+
+    private fun readFlags(path: String): Int {
+        if (!expect(path, INTEGER, STRING, ARRAY)) {
+            return 0
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            return readFlag(path)
+        }
+        var flags = 0
+        var index = 0
+        readArray {
+            val itemPath = "$path[${index++}]"
+            if (expect(itemPath, INTEGER, STRING)) {
+                flags = flags or readFlag(itemPath)
+            }
+        }
+        return flags
+    }
+
+    private fun readFlag(path: String): Int {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            val flag = parser.intValue
+            if (flag < 0) {
+                report(ValidatorTypeCode.MINIMUM, path, MINIMUM_FORMAT, "0")
+            }
+            return flag
+        }
+        val name = parser.text
+        return if (matches(path, name, FLAG_PATTERN, FLAG_MESSAGE)) {
+            Flags.metaState(name) ?: 0
+        } else {
+            0
+        }
+    }
+
+    private fun readString(path: String, message: String? = null): String? =
+        if (expect(path, STRING, message = message)) parser.text else null
+
+    private fun readBoolean(path: String): Boolean? =
+        if (expect(path, BOOLEAN)) parser.booleanValue else null
+
+    /**
+     * Calls [property] with the name and path of every property of the current object, the
+     * properties it does not know, for which it returns false, being additional properties.
+     */
+    private fun readObject(
+        path: String,
+        additionalPropertiesMessage: String? = null,
+        property: (String, String) -> Boolean
+    ) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName()
+            parser.nextToken()
+            if (!property(name, "$path.$name")) {
+                if (additionalPropertiesMessage == null) {
+                    report(
+                        ValidatorTypeCode.ADDITIONAL_PROPERTIES,
+                        path,
+                        ADDITIONAL_PROPERTIES_FORMAT,
+                        name
+                    )
+                } else {
+                    report(
+                        ValidatorTypeCode.ADDITIONAL_PROPERTIES,
+                        path,
+                        CUSTOM_FORMAT,
+                        additionalPropertiesMessage
+                    )
+                }
+                parser.skipChildren()
+            }
+        }
+    }
+
+    private fun readArray(item: () -> Unit) {
+        while (parser.nextToken().let { it != null && it != JsonToken.END_ARRAY }) {
+            item()
+        }
+    }
+
+    private fun expect(path: String, vararg types: String, message: String? = null): Boolean {
+        val found = typeOf(parser.currentToken())
+        if (found in types || (found == INTEGER && NUMBER in types)) {
+            return true
+        }
+        if (message != null) {
+            report(ValidatorTypeCode.TYPE, path, CUSTOM_FORMAT, message)
+        } else {
+            val expected = types.singleOrNull() ?: types.joinToString(prefix = "[", postfix = "]")
+            report(ValidatorTypeCode.TYPE, path, TYPE_FORMAT, found, expected)
+        }
+        parser.skipChildren()
+        return false
+    }
+
+    private fun matches(path: String, text: String, pattern: Regex, message: String): Boolean {
+        val matches = pattern.containsMatchIn(text)
+        if (!matches) {
+            report(ValidatorTypeCode.PATTERN, path, CUSTOM_FORMAT, message)
+        }
+        return matches
+    }
+
+    private fun report(
+        type: ValidatorTypeCode,
+        path: String,
+        format: String,
+        vararg arguments: String
+    ) {
+        errors += ValidationMessage.Builder()
+            .type(type.value)
+            .code(type.errorCode)
+            .path(path)
+            .arguments(*arguments)
+            .format(MessageFormat(format))
+            .build()
+    }
+
+    private fun typeOf(token: JsonToken?): String = when (token) {
+        JsonToken.START_OBJECT -> OBJECT
+        JsonToken.START_ARRAY -> ARRAY
+        JsonToken.VALUE_STRING -> STRING
+        JsonToken.VALUE_NUMBER_INT -> INTEGER
+        JsonToken.VALUE_NUMBER_FLOAT -> NUMBER
+        JsonToken.VALUE_TRUE, JsonToken.VALUE_FALSE -> BOOLEAN
+        else -> NULL
+    }
+
+    private inline fun <reified T : Enum<T>> enumOf(name: String): T? =
+        enumValues<T>().firstOrNull { it.name.equals(name, ignoreCase = true) }
+}
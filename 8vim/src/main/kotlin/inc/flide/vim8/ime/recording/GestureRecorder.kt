@@ -0,0 +1,66 @@
+package inc.flide.vim8.ime.recording
+
+import android.util.Log
+import android.view.MotionEvent
+import inc.flide.vim8.geometry.Circle
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+private const val TAG = "GestureRecorder"
+
+/**
+ * Records the gestures of the keyboard to [file] for [GestureReplayer]. The touch path only copies
+ * the events, opening the file and writing to it happen on [executor].
+ */
+class GestureRecorder @JvmOverloads constructor(
+    private val file: File,
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+) {
+    // Only touched from the executor.
+    private var writer: GestureRecordingWriter? = null
+
+    init {
+        execute {
+            file.parentFile?.mkdirs()
+            writer = GestureRecordingWriter(file.outputStream())
+        }
+    }
+
+    fun writeGeometry(circle: Circle) {
+        val geometry = GestureRecord.Geometry.of(circle)
+        execute { writer?.writeGeometry(geometry) }
+    }
+
+    fun write(event: MotionEvent) {
+        val touch = GestureRecord.Touch.of(event) ?: return
+        execute {
+            writer?.write(touch)
+            // A gesture is complete, keep it even if the process dies before the next one.
+            if (touch.action == TouchAction.UP) {
+                writer?.flush()
+            }
+        }
+    }
+
+    fun close() {
+        execute {
+            writer?.close()
+            writer = null
+        }
+        executor.shutdown()
+    }
+
+    private fun execute(block: () -> Unit) {
+        executor.execute {
+            try {
+                block()
+            } catch (e: IOException) {
+                Log.e(TAG, "Unable to record gestures to $file, recording stopped", e)
+                runCatching { writer?.close() }
+                writer = null
+            }
+        }
+    }
+}
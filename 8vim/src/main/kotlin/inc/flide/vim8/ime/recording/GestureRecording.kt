@@ -0,0 +1,95 @@
+package inc.flide.vim8.ime.recording
+
+import android.view.MotionEvent
+import inc.flide.vim8.geometry.Circle
+
+/**
+ * Binary layout of a gesture recording, all values big endian:
+ *
+ * ```
+ * recording := MAGIC:int VERSION:short record*
+ * record    := GEOMETRY centreX:float centreY:float radius:float edge:float sector:float
+ *            | (DOWN | MOVE | UP | CANCEL) count:short (time:long x:float y:float){count}
+ * ```
+ *
+ * The samples of a touch record are the historical samples of the motion event followed by its
+ * current one, in order.
+ */
+internal const val MAGIC = 0x38564752 // "8VGR"
+internal const val VERSION: Short = 1
+internal const val GEOMETRY: Byte = 0
+
+sealed interface GestureRecord {
+    data class Geometry(
+        val centreX: Float,
+        val centreY: Float,
+        val radius: Float,
+        val edgeHysteresis: Float,
+        val sectorHysteresis: Float
+    ) : GestureRecord {
+        fun applyTo(circle: Circle) {
+            circle.centre.x = centreX
+            circle.centre.y = centreY
+            circle.radius = radius
+            circle.edgeHysteresis = edgeHysteresis
+            circle.sectorHysteresis = sectorHysteresis
+        }
+
+        companion object {
+            fun of(circle: Circle) = Geometry(
+                circle.centre.x,
+                circle.centre.y,
+                circle.radius,
+                circle.edgeHysteresis,
+                circle.sectorHysteresis
+            )
+        }
+    }
+
+    class Touch(
+        val action: TouchAction,
+        val times: LongArray,
+        val xs: FloatArray,
+        val ys: FloatArray
+    ) : GestureRecord {
+        val size: Int
+            get() = times.size
+
+        companion object {
+            /**
+             * Copies [event] with its historical samples, or returns null for events other than
+             * down, move, up and cancel, which the keyboard ignores.
+             */
+            fun of(event: MotionEvent): Touch? {
+                val action = when (event.actionMasked) {
+                    MotionEvent.ACTION_DOWN -> TouchAction.DOWN
+                    MotionEvent.ACTION_MOVE -> TouchAction.MOVE
+                    MotionEvent.ACTION_UP -> TouchAction.UP
+                    MotionEvent.ACTION_CANCEL -> TouchAction.CANCEL
+                    else -> return null
+                }
+                val size = event.historySize + 1
+                val times = LongArray(size)
+                val xs = FloatArray(size)
+                val ys = FloatArray(size)
+                for (h in 0 until event.historySize) {
+                    times[h] = event.getHistoricalEventTime(h)
+                    xs[h] = event.getHistoricalX(h)
+                    ys[h] = event.getHistoricalY(h)
+                }
+                times[size - 1] = event.eventTime
+                xs[size - 1] = event.x
+                ys[size - 1] = event.y
+                return Touch(action, times, xs, ys)
+            }
+        }
+    }
+}
+
+enum class TouchAction(val code: Byte) {
+    DOWN(1), MOVE(2), UP(3), CANCEL(4);
+
+    companion object {
+        fun of(code: Byte): TouchAction? = values().firstOrNull { it.code == code }
+    }
+}
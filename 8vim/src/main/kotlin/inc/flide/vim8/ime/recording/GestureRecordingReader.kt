@@ -0,0 +1,53 @@
+package inc.flide.vim8.ime.recording
+
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.IOException
+import java.io.InputStream
+
+object GestureRecordingReader {
+    fun read(input: InputStream): List<GestureRecord> {
+        val data = DataInputStream(BufferedInputStream(input))
+        if (data.readInt() != MAGIC) {
+            throw IOException("Not a gesture recording")
+        }
+        val version = data.readShort()
+        if (version != VERSION) {
+            throw IOException("Unsupported gesture recording version $version")
+        }
+        val records = mutableListOf<GestureRecord>()
+        while (true) {
+            val next = data.read()
+            if (next == -1) {
+                break
+            }
+            val code = next.toByte()
+            records += if (code == GEOMETRY) {
+                GestureRecord.Geometry(
+                    data.readFloat(),
+                    data.readFloat(),
+                    data.readFloat(),
+                    data.readFloat(),
+                    data.readFloat()
+                )
+            } else {
+                readTouch(data, code)
+            }
+        }
+        return records
+    }
+
+    private fun readTouch(data: DataInputStream, code: Byte): GestureRecord.Touch {
+        val action = TouchAction.of(code) ?: throw IOException("Unknown record type $code")
+        val size = data.readUnsignedShort()
+        val times = LongArray(size)
+        val xs = FloatArray(size)
+        val ys = FloatArray(size)
+        for (i in 0 until size) {
+            times[i] = data.readLong()
+            xs[i] = data.readFloat()
+            ys[i] = data.readFloat()
+        }
+        return GestureRecord.Touch(action, times, xs, ys)
+    }
+}
@@ -0,0 +1,75 @@
+package inc.flide.vim8.ime.recording
+
+import android.view.MotionEvent
+import inc.flide.vim8.geometry.Circle
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+
+class GestureRecordingWriter @Throws(IOException::class) constructor(
+    output: OutputStream
+) : Closeable {
+    private val output = DataOutputStream(BufferedOutputStream(output))
+
+    init {
+        this.output.writeInt(MAGIC)
+        this.output.writeShort(VERSION.toInt())
+    }
+
+    @Throws(IOException::class)
+    fun writeGeometry(circle: Circle) {
+        writeGeometry(GestureRecord.Geometry.of(circle))
+    }
+
+    @Throws(IOException::class)
+    fun writeGeometry(geometry: GestureRecord.Geometry) {
+        output.writeByte(GEOMETRY.toInt())
+        output.writeFloat(geometry.centreX)
+        output.writeFloat(geometry.centreY)
+        output.writeFloat(geometry.radius)
+        output.writeFloat(geometry.edgeHysteresis)
+        output.writeFloat(geometry.sectorHysteresis)
+    }
+
+    @Throws(IOException::class)
+    fun writeTouch(action: TouchAction, sampleCount: Int) {
+        output.writeByte(action.code.toInt())
+        output.writeShort(sampleCount)
+    }
+
+    @Throws(IOException::class)
+    fun writeSample(time: Long, x: Float, y: Float) {
+        output.writeLong(time)
+        output.writeFloat(x)
+        output.writeFloat(y)
+    }
+
+    /**
+     * Records [event] with its historical samples. Events other than down, move, up and cancel
+     * are ignored, as the keyboard ignores them.
+     */
+    @Throws(IOException::class)
+    fun write(event: MotionEvent) {
+        GestureRecord.Touch.of(event)?.let { write(it) }
+    }
+
+    @Throws(IOException::class)
+    fun write(touch: GestureRecord.Touch) {
+        writeTouch(touch.action, touch.size)
+        for (i in 0 until touch.size) {
+            writeSample(touch.times[i], touch.xs[i], touch.ys[i])
+        }
+    }
+
+    @Throws(IOException::class)
+    fun flush() {
+        output.flush()
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        output.close()
+    }
+}
@@ -0,0 +1,62 @@
+package inc.flide.vim8.ime.recording
+
+import android.view.View
+import inc.flide.vim8.geometry.Circle
+import inc.flide.vim8.ime.InputMethodActions
+import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import inc.flide.vim8.ime.layout.models.FingerPosition
+
+/**
+ * Feeds a gesture recording through [Circle] and [MainKeypadActionListener] the way XpadView
+ * does, with long press timers following the recorded timestamps, so a session can be decoded
+ * again off device. The decoded input reaches [inputMethodService].
+ */
+class GestureReplayer(inputMethodService: InputMethodActions, view: View) {
+    private val circle = Circle()
+    private val scheduler = VirtualGestureScheduler()
+    private val listener = MainKeypadActionListener(inputMethodService, view, scheduler)
+    private var fingerPosition = FingerPosition.NO_TOUCH
+
+    data class Statistics(val samples: Int, val totalNanos: Long, val maxNanos: Long)
+
+    fun replay(records: List<GestureRecord>): Statistics {
+        var samples = 0
+        var totalNanos = 0L
+        var maxNanos = 0L
+        records.forEach { record ->
+            when (record) {
+                is GestureRecord.Geometry -> record.applyTo(circle)
+                is GestureRecord.Touch -> for (i in 0 until record.size) {
+                    scheduler.advanceTo(record.times[i])
+                    val start = System.nanoTime()
+                    replay(record.action, record.xs[i], record.ys[i])
+                    val nanos = System.nanoTime() - start
+                    samples++
+                    totalNanos += nanos
+                    maxNanos = maxOf(maxNanos, nanos)
+                }
+            }
+        }
+        return Statistics(samples, totalNanos, maxNanos)
+    }
+
+    private fun replay(action: TouchAction, x: Float, y: Float) {
+        when (action) {
+            TouchAction.DOWN -> {
+                fingerPosition = FingerPosition.NO_TOUCH
+                listener.movementStarted(fingerPositionOf(x, y))
+            }
+
+            TouchAction.MOVE -> listener.movementContinues(fingerPositionOf(x, y))
+            TouchAction.UP -> listener.movementEnds()
+            TouchAction.CANCEL -> listener.movementCanceled()
+        }
+    }
+
+    private fun fingerPositionOf(x: Float, y: Float): FingerPosition {
+        // XpadView decides sectors on whole pixels.
+        fingerPosition =
+            circle.getFingerPosition(x.toInt().toFloat(), y.toInt().toFloat(), fingerPosition)
+        return fingerPosition
+    }
+}
@@ -0,0 +1,37 @@
+package inc.flide.vim8.ime.recording
+
+import inc.flide.vim8.ime.actionlisteners.GestureScheduler
+import java.util.PriorityQueue
+
+/**
+ * [GestureScheduler] driven by the timestamps of a recording instead of a clock.
+ */
+class VirtualGestureScheduler : GestureScheduler {
+    private class Task(val time: Long, val order: Long, val runnable: Runnable)
+
+    private val tasks = PriorityQueue<Task>(compareBy<Task>({ it.time }, { it.order }))
+    private var order = 0L
+
+    var now = 0L
+        private set
+
+    override fun postDelayed(runnable: Runnable, delayMillis: Long) {
+        tasks.add(Task(now + delayMillis, order++, runnable))
+    }
+
+    override fun cancel(runnable: Runnable) {
+        tasks.removeAll { it.runnable === runnable }
+    }
+
+    /**
+     * Runs, in order, every task due up to [time], including the ones they post meanwhile.
+     */
+    fun advanceTo(time: Long) {
+        while (tasks.isNotEmpty() && tasks.peek()!!.time <= time) {
+            val task = tasks.poll()!!
+            now = task.time
+            task.runnable.run()
+        }
+        now = maxOf(now, time)
+    }
+}
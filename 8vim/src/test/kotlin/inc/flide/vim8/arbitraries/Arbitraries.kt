@@ -19,7 +19,7 @@ import io.kotest.property.arbitrary.map
 import io.kotest.property.arbitrary.string
 
 object Arbitraries {
-    private val arbMovementSequence: Arb<MovementSequence> = Arb.list(Arb.enum(), 1..10)
+    val arbMovementSequence: Arb<MovementSequence> = Arb.list(Arb.enum(), 1..10)
 
     val arbCharactersSet = Arb.string(CHARACTER_SET_SIZE)
 
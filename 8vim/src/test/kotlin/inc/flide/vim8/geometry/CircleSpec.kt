@@ -41,4 +41,49 @@ class CircleSpec : FunSpec({
             circle.getSectorOfPoint(point) shouldBe position
         }
     }
+
+    context("coordinates and points are classified the same") {
+        withData(
+            (1f to 1f),
+            (20f to 20f),
+            (-15f to 3f),
+            (4f to -30f)
+        ) { (x, y) ->
+            val point = mockPointF(x, y)
+            circle.isPointInsideCircle(x, y) shouldBe circle.isPointInsideCircle(point)
+            circle.getSectorOfPoint(x, y) shouldBe circle.getSectorOfPoint(point)
+        }
+    }
+
+    context("diagonals belong to the counter-clockwise sector") {
+        withData(
+            (FingerPosition.TOP to mockPointF(5f, -5f)),
+            (FingerPosition.LEFT to mockPointF(-5f, -5f)),
+            (FingerPosition.BOTTOM to mockPointF(-5f, 5f)),
+            (FingerPosition.RIGHT to mockPointF(5f, 5f))
+        ) { (position, point) ->
+            circle.getSectorOfPoint(point) shouldBe position
+        }
+    }
+
+    context("hysteresis keeps the previous finger position near a border") {
+        val stickyCircle = Circle()
+        stickyCircle.radius = 10f
+        stickyCircle.edgeHysteresis = 2f
+        stickyCircle.sectorHysteresis = 0.2f
+        withData(
+            Triple(FingerPosition.INSIDE_CIRCLE, 11f to 0f, FingerPosition.INSIDE_CIRCLE),
+            Triple(FingerPosition.INSIDE_CIRCLE, 13f to 0f, FingerPosition.RIGHT),
+            Triple(FingerPosition.RIGHT, 9f to 0f, FingerPosition.RIGHT),
+            Triple(FingerPosition.RIGHT, 7f to 0f, FingerPosition.INSIDE_CIRCLE),
+            Triple(FingerPosition.NO_TOUCH, 9f to 0f, FingerPosition.INSIDE_CIRCLE),
+            Triple(FingerPosition.RIGHT, 20f to -22f, FingerPosition.RIGHT),
+            Triple(FingerPosition.RIGHT, 20f to -30f, FingerPosition.TOP),
+            Triple(FingerPosition.TOP, 22f to -20f, FingerPosition.TOP),
+            Triple(FingerPosition.LEFT, 20f to -22f, FingerPosition.TOP)
+        ) { (previous, coordinates, expected) ->
+            val (x, y) = coordinates
+            stickyCircle.getFingerPosition(x, y, previous) shouldBe expected
+        }
+    }
 })
@@ -2,6 +2,7 @@ package inc.flide.vim8.ime
 
 import android.content.Context
 import android.content.res.Resources
+import android.util.Log
 import arrow.core.None
 import arrow.core.right
 import inc.flide.vim8.arbitraries.Arbitraries
@@ -15,8 +16,12 @@ import io.kotest.assertions.arrow.core.shouldBeRight
 import io.kotest.core.spec.style.FunSpec
 import io.kotest.property.arbitrary.next
 import io.mockk.clearMocks
+import io.mockk.clearStaticMockk
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.mockk.verify
 import java.io.InputStream
 
 class LayoutLoaderSpec : FunSpec({
@@ -25,8 +30,11 @@ class LayoutLoaderSpec : FunSpec({
     val inputStream = mockk<InputStream>(relaxed = true)
     val cache = mockk<Cache>(relaxed = true)
     val layoutParser = mockk<LayoutParser>(relaxed = true)
+    val embeddedLayoutParser = mockk<LayoutParser>(relaxed = true)
 
     beforeSpec {
+        mockkStatic(Log::class)
+        every { Log.w(any(), any<String>()) } returns 0
         every { cache.load(any()) } returns None
         every { context.resources } returns resources
     }
@@ -36,7 +44,12 @@ class LayoutLoaderSpec : FunSpec({
     }
 
     afterTest {
-        clearMocks(resources, layoutParser)
+        clearMocks(resources, layoutParser, embeddedLayoutParser)
+        clearStaticMockk(Log::class, answers = false)
+    }
+
+    afterSpec {
+        unmockkStatic(Log::class)
     }
 
     context("Loading keyboardData") {
@@ -44,7 +57,7 @@ class LayoutLoaderSpec : FunSpec({
             val action = Arbitraries.arbKeyboardAction.next()
             val first = listOf(FingerPosition.INSIDE_CIRCLE) to action
             val second = listOf(FingerPosition.TOP) to action
-            every { layoutParser.readKeyboardData(any()) } returnsMany listOf(
+            every { embeddedLayoutParser.readKeyboardData(any()) } returnsMany listOf(
                 KeyboardData(
                     actionMap = mapOf(first),
                     characterSets = listOf(CharacterSet("t"))
@@ -53,14 +66,69 @@ class LayoutLoaderSpec : FunSpec({
                     actionMap = mapOf(first),
                     characterSets = listOf(CharacterSet(), CharacterSet("u", "T"))
                 ).right(),
-                KeyboardData(actionMap = mapOf(second)).right(),
+                KeyboardData(actionMap = mapOf(second)).right()
+            )
+            every { layoutParser.readKeyboardData(any()) } returns
                 KeyboardData(info = LayoutInfo(name = "test")).right()
+            YamlLayoutLoader(
+                layoutParser,
+                cache,
+                context,
+                embeddedLayoutParser = embeddedLayoutParser
             )
-            YamlLayoutLoader(layoutParser, cache, context)
                 .loadKeyboardData(mockk()) shouldBeRight KeyboardData(
                 actionMap = mapOf(first, second),
                 info = LayoutInfo(name = "test")
             )
         }
+
+        test("from a compiled layout") {
+            val compiledLayoutParser = mockk<LayoutParser>()
+            val action = Arbitraries.arbKeyboardAction.next()
+            val common = listOf(FingerPosition.INSIDE_CIRCLE) to action
+            val layout = listOf(FingerPosition.TOP) to action
+            every { embeddedLayoutParser.readKeyboardData(any()) } returns KeyboardData(
+                actionMap = mapOf(common)
+            ).right()
+            every { compiledLayoutParser.readKeyboardData(any()) } returns KeyboardData(
+                actionMap = mapOf(layout),
+                info = LayoutInfo(name = "compiled")
+            ).right()
+            YamlLayoutLoader(
+                layoutParser,
+                cache,
+                context,
+                compiledLayoutParser,
+                embeddedLayoutParser
+            )
+                .loadCompiledKeyboardData(mockk()) shouldBeRight KeyboardData(
+                actionMap = mapOf(common, layout),
+                info = LayoutInfo(name = "compiled")
+            )
+        }
+
+        test("keeps the actions of a layout which do not conflict") {
+            val action = Arbitraries.arbKeyboardAction.next()
+            val common = listOf(FingerPosition.INSIDE_CIRCLE) to action
+            val conflicting = listOf(FingerPosition.INSIDE_CIRCLE) to
+                action.copy(text = action.text + "x")
+            val layout = listOf(FingerPosition.TOP) to action
+            every { embeddedLayoutParser.readKeyboardData(any()) } returns KeyboardData(
+                actionMap = mapOf(common)
+            ).right()
+            every { layoutParser.readKeyboardData(any()) } returns KeyboardData(
+                actionMap = mapOf(conflicting, layout)
+            ).right()
+            YamlLayoutLoader(
+                layoutParser,
+                cache,
+                context,
+                embeddedLayoutParser = embeddedLayoutParser
+            )
+                .loadKeyboardData(mockk()) shouldBeRight KeyboardData(
+                actionMap = mapOf(common, layout)
+            )
+            verify { Log.w(any(), any<String>()) }
+        }
     }
 })
@@ -0,0 +1,53 @@
+package inc.flide.vim8.ime
+
+import android.graphics.Bitmap
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.mockk.mockk
+import io.mockk.verify
+
+class TintedIconCacheSpec : FunSpec({
+    val black = TintedIcon(1, 0xFF000000.toInt(), 85, 48)
+    val white = black.copy(tint = 0xFFFFFFFF.toInt())
+
+    test("rasterises each icon once") {
+        var rasterized = 0
+        val cache = TintedIconCache {
+            rasterized++
+            mockk<Bitmap>(relaxed = true)
+        }
+
+        val bitmap = cache.get(black)
+
+        cache.get(black) shouldBeSameInstanceAs bitmap
+        rasterized shouldBe 1
+        cache.get(black.copy(size = 64))
+        rasterized shouldBe 2
+    }
+
+    test("does not cache missing icons") {
+        var rasterized = 0
+        val cache = TintedIconCache {
+            rasterized++
+            null
+        }
+
+        cache.get(black) shouldBe null
+        cache.get(black) shouldBe null
+        rasterized shouldBe 2
+    }
+
+    test("theme changes only drop the icons of other tints") {
+        val cache = TintedIconCache { mockk<Bitmap>(relaxed = true) }
+        val blackBitmap = cache.get(black)!!
+        val whiteBitmap = cache.get(white)!!
+
+        cache.retainTint(white.tint)
+
+        verify { blackBitmap.recycle() }
+        verify(exactly = 0) { whiteBitmap.recycle() }
+        cache.get(white) shouldBeSameInstanceAs whiteBitmap
+        (cache.get(black) === blackBitmap) shouldBe false
+    }
+})
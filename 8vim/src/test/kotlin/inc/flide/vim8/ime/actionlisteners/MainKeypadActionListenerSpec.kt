@@ -0,0 +1,146 @@
+package inc.flide.vim8.ime.actionlisteners
+
+import android.content.Context
+import android.media.AudioManager
+import android.view.View
+import inc.flide.vim8.AppPrefs
+import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.appPreferenceModel
+import inc.flide.vim8.datastore.CachedPreferenceModel
+import inc.flide.vim8.datastore.model.PreferenceData
+import inc.flide.vim8.ime.layout.models.CharacterSet
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.KeyboardAction
+import inc.flide.vim8.ime.layout.models.KeyboardActionType
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import inc.flide.vim8.ime.recording.VirtualGestureScheduler
+import io.kotest.assertions.arrow.core.shouldBeSome
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.shouldBe
+import io.mockk.clearMocks
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+
+class MainKeypadActionListenerSpec : FunSpec({
+    val prefs = mockk<AppPrefs>()
+    val inputFeedback = mockk<AppPrefs.InputFeedback>()
+    val feedbackEnabled = mockk<PreferenceData<Boolean>>()
+    val context = mockk<Context>()
+    val view = mockk<View>()
+    val mainInputMethodService = mockk<MainInputMethodService>(relaxed = true)
+    val committedText = StringBuilder()
+
+    fun keyboardData(text: String) = KeyboardData(
+        mapOf(
+            listOf(
+                FingerPosition.INSIDE_CIRCLE,
+                FingerPosition.RIGHT,
+                FingerPosition.INSIDE_CIRCLE
+            ) to KeyboardAction(
+                KeyboardActionType.INPUT_TEXT,
+                text,
+                text.uppercase(),
+                0,
+                0,
+                LayerLevel.FIRST
+            )
+        )
+    )
+
+    fun MainKeypadActionListener.swipeRight() {
+        movementStarted(FingerPosition.INSIDE_CIRCLE)
+        movementContinues(FingerPosition.RIGHT)
+        movementContinues(FingerPosition.INSIDE_CIRCLE)
+        movementEnds()
+    }
+
+    beforeSpec {
+        mockkStatic(::appPreferenceModel)
+        every { appPreferenceModel() } returns CachedPreferenceModel(prefs)
+        every { prefs.inputFeedback } returns inputFeedback
+        every { inputFeedback.soundEnabled } returns feedbackEnabled
+        every { inputFeedback.hapticEnabled } returns feedbackEnabled
+        every { feedbackEnabled.get() } returns false
+        every { view.context } returns context
+        every { context.getSystemService(Context.AUDIO_SERVICE) } returns
+            mockk<AudioManager>(relaxed = true)
+    }
+
+    beforeTest {
+        committedText.clear()
+        every { mainInputMethodService.shiftState } returns MainInputMethodService.State.OFF
+        every { mainInputMethodService.sendText(any()) } answers {
+            committedText.append(firstArg<String?>().orEmpty())
+        }
+    }
+
+    test("publishing a layout creates a new snapshot and notifies the listeners") {
+        var notified = 0
+        val callback = Runnable { notified++ }
+        MainKeypadActionListener.onKeyboardDataChanged(callback)
+        val version = MainKeypadActionListener.snapshot.version
+        val keyboardData = keyboardData("a")
+
+        MainKeypadActionListener.rebuildKeyboardData(keyboardData)
+
+        MainKeypadActionListener.snapshot.version shouldBe version + 1
+        MainKeypadActionListener.snapshot.keyboardData shouldBeSome keyboardData
+        notified shouldBe 1
+
+        MainKeypadActionListener.removeOnKeyboardDataChanged(callback)
+        MainKeypadActionListener.rebuildKeyboardData(keyboardData)
+        notified shouldBe 1
+    }
+
+    test("a gesture keeps the layout it started with") {
+        val first = keyboardData("a")
+        val second = keyboardData("b")
+        MainKeypadActionListener.rebuildKeyboardData(first)
+        val listener =
+            MainKeypadActionListener(mainInputMethodService, view, VirtualGestureScheduler())
+
+        listener.movementStarted(FingerPosition.INSIDE_CIRCLE)
+        listener.movementContinues(FingerPosition.RIGHT)
+        MainKeypadActionListener.rebuildKeyboardData(second)
+        listener.keyboardDataSnapshot.keyboardData shouldBeSome first
+        listener.movementContinues(FingerPosition.INSIDE_CIRCLE)
+        listener.movementEnds()
+        committedText.toString() shouldBe "a"
+
+        listener.keyboardDataSnapshot.keyboardData shouldBeSome second
+        listener.swipeRight()
+        committedText.toString() shouldBe "ab"
+    }
+
+    test("only the movement sequences of the third layer and up select a layer by prefix") {
+        MainKeypadActionListener.rebuildKeyboardData(
+            KeyboardData(
+                characterSets = List(LayerLevel.VisibleLayers.size) {
+                    if (it < 3) CharacterSet("a", "A") else CharacterSet()
+                }
+            )
+        )
+        val listener =
+            MainKeypadActionListener(mainInputMethodService, view, VirtualGestureScheduler())
+
+        listener.movementStarted(FingerPosition.BOTTOM)
+        listener.movementContinues(FingerPosition.INSIDE_CIRCLE)
+        listener.movementContinues(FingerPosition.BOTTOM)
+        listener.findLayer() shouldBe LayerLevel.FIRST
+        listener.movementContinues(FingerPosition.LEFT)
+        listener.findLayer() shouldBe LayerLevel.THIRD
+        listener.movementCanceled()
+    }
+
+    afterTest {
+        clearMocks(mainInputMethodService)
+    }
+
+    afterSpec {
+        MainKeypadActionListener.rebuildKeyboardData(null)
+        unmockkStatic(::appPreferenceModel)
+    }
+})
@@ -0,0 +1,79 @@
+package inc.flide.vim8.ime.actionlisteners
+
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.datatest.withData
+import io.kotest.matchers.booleans.shouldBeFalse
+import io.kotest.matchers.shouldBe
+
+class RotationDetectorSpec : FunSpec({
+    val counterClockwise = listOf(
+        FingerPosition.RIGHT,
+        FingerPosition.TOP,
+        FingerPosition.LEFT,
+        FingerPosition.BOTTOM
+    )
+
+    fun loop(start: Int, steps: Int, clockwise: Boolean): List<FingerPosition> =
+        List(steps + 1) {
+            val offset = if (clockwise) -it else it
+            counterClockwise[Math.floorMod(start + offset, counterClockwise.size)]
+        }
+
+    context("detects rotations in both directions from any sector") {
+        withData(
+            nameFn = { (start, clockwise) -> "start $start, clockwise $clockwise" },
+            (0..3).flatMap { listOf(it to true, it to false) }
+        ) { (start, clockwise) ->
+            val detector = RotationDetector()
+            detector.arm()
+            val completed = loop(start, 13, clockwise).mapIndexedNotNull { index, position ->
+                index.takeIf { detector.advance(position) }
+            }
+            completed shouldBe listOf(5, 9, 13)
+            detector.rotations shouldBe if (clockwise) -3 else 3
+            detector.sectorAt(0) shouldBe loop(start, 13, clockwise).last()
+        }
+    }
+
+    test("going inside the circle disarms the detector") {
+        val detector = RotationDetector()
+        detector.arm()
+        loop(0, 3, false).forEach { detector.advance(it) }
+        detector.advance(FingerPosition.INSIDE_CIRCLE).shouldBeFalse()
+        detector.isArmed.shouldBeFalse()
+        loop(1, 10, false).any { detector.advance(it) }.shouldBeFalse()
+    }
+
+    test("the completed rotations are kept until the detector is armed again") {
+        val detector = RotationDetector()
+        detector.arm()
+        loop(0, 7, false).forEach { detector.advance(it) }
+        detector.advance(FingerPosition.INSIDE_CIRCLE).shouldBeFalse()
+        detector.isArmed.shouldBeFalse()
+        detector.rotations shouldBe 1
+
+        detector.arm()
+        loop(0, 6, true).forEach { detector.advance(it) }
+        detector.advance(FingerPosition.BOTTOM)
+        detector.isArmed.shouldBeFalse()
+        detector.rotations shouldBe -1
+
+        detector.disarm()
+        detector.rotations shouldBe -1
+        detector.arm()
+        detector.rotations shouldBe 0
+    }
+
+    test("turning around or jumping to the opposite sector disarms the detector") {
+        val detector = RotationDetector()
+        detector.arm()
+        (loop(0, 3, false) + loop(2, 5, true)).any { detector.advance(it) }.shouldBeFalse()
+        detector.isArmed.shouldBeFalse()
+
+        detector.arm()
+        detector.advance(FingerPosition.RIGHT)
+        detector.advance(FingerPosition.LEFT)
+        detector.isArmed.shouldBeFalse()
+    }
+})
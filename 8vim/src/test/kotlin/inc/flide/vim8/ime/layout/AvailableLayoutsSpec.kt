@@ -31,6 +31,8 @@ import io.mockk.mockkClass
 import io.mockk.mockkObject
 import io.mockk.mockkStatic
 import io.mockk.verify
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
 import kotlin.random.Random
 
 class AvailableLayoutsSpec : WordSpec({
@@ -42,6 +44,23 @@ class AvailableLayoutsSpec : WordSpec({
     val customLayout = mockkClass(CustomLayout::class)
     val layoutLoader = mockk<LayoutLoader>(relaxed = true)
     val context = mockk<Context>()
+    val directExecutor = Executor { it.run() }
+    val timeouts = mutableListOf<Runnable>()
+    val timer = mockk<ScheduledExecutorService>()
+    val layoutLoadingService = LayoutLoadingService(
+        layoutLoader,
+        context,
+        directExecutor,
+        directExecutor,
+        directExecutor,
+        timer
+    )
+
+    fun timeOutRunningTask() {
+        timeouts.last().run()
+        // The task runs on this thread, which the timeout interrupts.
+        Thread.interrupted()
+    }
 
     val embeddedLayouts = Arb.list(
         Arb.pair(arbEmbeddedLayout, Arb.string(10, 20)),
@@ -69,10 +88,15 @@ class AvailableLayoutsSpec : WordSpec({
         every { layoutPref.custom } returns customPref
         every { customPref.history } returns history
         every { appPreferenceModel() } returns CachedPreferenceModel(prefs)
-        every { embeddedLayouts(any(), any()) } returns embeddedLayouts
+        every { embeddedLayouts(any()) } returns embeddedLayouts
     }
 
     beforeTest {
+        timeouts.clear()
+        every { timer.schedule(any<Runnable>(), any(), any()) } answers {
+            timeouts.add(firstArg())
+            mockk(relaxed = true)
+        }
         every { currentLayout.default } returns embeddedLayouts.first().first
         every { currentLayout.get() } returns embeddedLayouts.first().first
         every { history.get() } returns emptySet()
@@ -82,14 +106,14 @@ class AvailableLayoutsSpec : WordSpec({
         "find the index of a previous config" should {
             "get the right index" {
                 every { currentLayout.get() } returns embeddedLayouts[1].first
-                val availableLayouts = AvailableLayouts(layoutLoader, context)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
                 availableLayouts.index shouldBe 1
             }
         }
 
         "custom layout history" should {
             "get only embedded layouts if the history is empty" {
-                val availableLayouts = AvailableLayouts(layoutLoader, context)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
                 val expected = embeddedLayouts.map { it.second }
                 availableLayouts.displayNames shouldContainExactly expected
             }
@@ -101,12 +125,70 @@ class AvailableLayoutsSpec : WordSpec({
                 every { currentLayout.get() } returns customLayout
                 every { customLayout.loadKeyboardData(any(), any()) } returns keyboardData.right()
                 every { history.get() } returns setOf(uri)
-                val availableLayouts = AvailableLayouts(layoutLoader, context)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
                 val strings = embeddedLayouts.map { it.second } + keyboardData.toString()
                 availableLayouts.displayNames shouldContainExactly strings
                 availableLayouts.index shouldBe embeddedLayouts.size
             }
 
+            "list the custom layouts in the order of the history" {
+                val uris = listOf("first", "second")
+                val customLayouts = uris.map { mockkClass(CustomLayout::class) }
+                val keyboardData = uris.map { arbKeyboardData.next() }
+                uris.indices.forEach { i ->
+                    every { uris[i].toCustomLayout() } returns customLayouts[i]
+                    every { customLayouts[i].loadKeyboardData(any(), any()) } returns
+                        keyboardData[i].right()
+                }
+                every { history.get() } returns uris.toSet()
+                val progress = mutableListOf<Pair<Int, Int>>()
+                val availableLayouts = AvailableLayouts(
+                    layoutLoadingService,
+                    context
+                ) { done, total -> progress.add(done to total) }
+                val strings = embeddedLayouts.map { it.second } + keyboardData.map { it.toString() }
+                availableLayouts.displayNames shouldContainExactly strings
+                progress shouldContainExactly listOf(1 to 2, 2 to 2)
+            }
+
+            "keep the layouts which time out and list them once they load" {
+                val uri = "uri"
+                val keyboardData = arbKeyboardData.next()
+                var attempts = 0
+                every { uri.toCustomLayout() } returns customLayout
+                every { currentLayout.get() } returns customLayout
+                every { customLayout.loadKeyboardData(any(), any()) } answers {
+                    // The first attempt outlives its timeout.
+                    if (attempts++ == 0) timeOutRunningTask()
+                    keyboardData.right()
+                }
+                every { history.get() } returns setOf(uri)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
+                val strings = embeddedLayouts.map { it.second } + keyboardData.toString()
+                availableLayouts.displayNames shouldContainExactly strings
+                availableLayouts.index shouldBe embeddedLayouts.size
+                attempts shouldBe 2
+                verify(exactly = 0) { history.set(any()) }
+                verify(exactly = 0) { currentLayout.reset() }
+            }
+
+            "keep the current layout while it times out" {
+                val uri = "uri"
+                every { uri.toCustomLayout() } returns customLayout
+                every { currentLayout.get() } returns customLayout
+                every { customLayout.loadKeyboardData(any(), any()) } answers {
+                    timeOutRunningTask()
+                    arbKeyboardData.next().right()
+                }
+                every { history.get() } returns setOf(uri)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
+                val expected = embeddedLayouts.map { it.second }
+                availableLayouts.displayNames shouldContainExactly expected
+                availableLayouts.index shouldBe 0
+                verify(exactly = 0) { history.set(any()) }
+                verify(exactly = 0) { currentLayout.reset() }
+            }
+
             "fallback to default" {
                 val uri = "uri"
                 every { uri.toCustomLayout() } returns customLayout
@@ -116,7 +198,7 @@ class AvailableLayoutsSpec : WordSpec({
                 ).left()
                 every { history.get() } returns setOf(uri)
                 justRun { history.set(any()) }
-                val availableLayouts = AvailableLayouts(layoutLoader, context)
+                val availableLayouts = AvailableLayouts(layoutLoadingService, context)
                 val expected = embeddedLayouts.map { it.second }
                 availableLayouts.displayNames shouldContainExactly expected
                 availableLayouts.index shouldBe 0
@@ -128,7 +210,7 @@ class AvailableLayoutsSpec : WordSpec({
         "which is an embedded layout" {
             val layouts = embeddedLayouts.map { it.first }
             val index = Random.nextInt(1, layouts.size)
-            val availableLayouts = AvailableLayouts(layoutLoader, context)
+            val availableLayouts = AvailableLayouts(layoutLoadingService, context)
             availableLayouts.selectLayout(index)
             verify { MainKeypadActionListener.rebuildKeyboardData(any()) }
             verify { currentLayout.set(layouts[index]) }
@@ -142,7 +224,7 @@ class AvailableLayoutsSpec : WordSpec({
                 .right()
             every { history.get() } returns setOf(uri)
             val index = embeddedLayouts.size
-            val availableLayouts = AvailableLayouts(layoutLoader, context)
+            val availableLayouts = AvailableLayouts(layoutLoadingService, context)
             availableLayouts.selectLayout(index)
             verify { MainKeypadActionListener.rebuildKeyboardData(any()) }
             verify { currentLayout.set(customLayout) }
@@ -151,7 +233,7 @@ class AvailableLayoutsSpec : WordSpec({
 
         "which is not a valid index" {
             val index = embeddedLayouts.size
-            val availableLayouts = AvailableLayouts(layoutLoader, context)
+            val availableLayouts = AvailableLayouts(layoutLoadingService, context)
             availableLayouts.selectLayout(index)
             availableLayouts.index shouldBe 0
         }
@@ -0,0 +1,131 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import arrow.core.Option
+import inc.flide.vim8.arbitraries.Arbitraries
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.parsers.CacheParser
+import inc.flide.vim8.ime.layout.parsers.FlatParser
+import io.kotest.assertions.arrow.core.shouldBeNone
+import io.kotest.assertions.arrow.core.shouldBeSome
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.engine.spec.tempdir
+import io.kotest.matchers.collections.shouldContainExactlyInAnyOrder
+import io.kotest.matchers.shouldBe
+import io.kotest.property.arbitrary.next
+import io.mockk.every
+import io.mockk.mockk
+import java.io.File
+
+private const val ENTRY_SIZE = 100
+
+/**
+ * Writes fixed size files, so that the eviction budget can be expressed in entries.
+ */
+private class FixedSizeParser(override val formatVersion: Int = 1) : CacheParser {
+    override val fileExtension = "test"
+
+    override fun load(file: File): Option<KeyboardData> = Option.catch {
+        check(file.readBytes().size == ENTRY_SIZE)
+        KeyboardData()
+    }
+
+    override fun save(file: File, keyboardData: KeyboardData): Boolean {
+        file.writeBytes(ByteArray(ENTRY_SIZE))
+        return true
+    }
+}
+
+class CacheSpec : FunSpec({
+    val context = mockk<Context>()
+    lateinit var cacheDir: File
+    var now = 0L
+    val clock = { now++ }
+
+    beforeTest {
+        cacheDir = tempdir()
+        every { context.cacheDir } returns cacheDir
+    }
+
+    fun layoutFiles() = File(cacheDir, "layouts").list().orEmpty().toList()
+
+    test("loads what was added") {
+        val cache = Cache(FixedSizeParser(), context, clock = clock)
+        cache.add("en", KeyboardData())
+        cache.load("en") shouldBeSome KeyboardData()
+        cache.load("fr").shouldBeNone()
+    }
+
+    test("keeps its entries across instances") {
+        val keyboardData = Arbitraries.arbKeyboardData.next()
+        Cache(FlatParser(), context, clock = clock).add("en", keyboardData)
+        Cache(FlatParser(), context, clock = clock).load("en") shouldBeSome keyboardData
+    }
+
+    test("drops entries whose file changed size") {
+        val cache = Cache(FixedSizeParser(), context, clock = clock)
+        cache.add("en", KeyboardData())
+        File(cacheDir, "layouts/en.test").writeBytes(ByteArray(ENTRY_SIZE / 2))
+        cache.load("en").shouldBeNone()
+        layoutFiles() shouldContainExactlyInAnyOrder listOf("manifest.json")
+    }
+
+    test("drops entries the parser rejects") {
+        val cache = Cache(FlatParser(), context, clock = clock)
+        cache.add("en", Arbitraries.arbKeyboardData.next())
+        val file = File(cacheDir, "layouts/en.kbd")
+        file.writeBytes(ByteArray(file.length().toInt()))
+        cache.load("en").shouldBeNone()
+        layoutFiles() shouldContainExactlyInAnyOrder listOf("manifest.json")
+    }
+
+    test("drops entries whose checksum changed") {
+        val cache = Cache(FixedSizeParser(), context, clock = clock)
+        cache.add("en", KeyboardData())
+        File(cacheDir, "layouts/en.test").writeBytes(ByteArray(ENTRY_SIZE) { 1 })
+        Cache(FixedSizeParser(), context, clock = clock).load("en").shouldBeNone()
+        layoutFiles() shouldContainExactlyInAnyOrder listOf("manifest.json")
+    }
+
+    test("does not write the manifest on hits") {
+        val cache = Cache(FixedSizeParser(), context, clock = clock)
+        cache.add("en", KeyboardData())
+        val manifest = File(cacheDir, "layouts/manifest.json").readText()
+        cache.load("en") shouldBeSome KeyboardData()
+        File(cacheDir, "layouts/manifest.json").readText() shouldBe manifest
+    }
+
+    test("drops entries of another app version or format version") {
+        Cache(FixedSizeParser(), context, appVersion = 1, clock = clock).add("en", KeyboardData())
+        Cache(FixedSizeParser(), context, appVersion = 2, clock = clock).load("en").shouldBeNone()
+
+        Cache(FixedSizeParser(1), context, clock = clock).add("fr", KeyboardData())
+        Cache(FixedSizeParser(2), context, clock = clock).load("fr").shouldBeNone()
+        layoutFiles() shouldContainExactlyInAnyOrder listOf("manifest.json")
+    }
+
+    test("evicts the least recently used entries") {
+        val cache = Cache(FixedSizeParser(), context, maxSize = 2L * ENTRY_SIZE, clock = clock)
+        cache.add("en", KeyboardData())
+        cache.add("fr", KeyboardData())
+        cache.load("en") shouldBeSome KeyboardData()
+        cache.add("de", KeyboardData())
+        cache.load("fr").shouldBeNone()
+        cache.load("en") shouldBeSome KeyboardData()
+        cache.load("de") shouldBeSome KeyboardData()
+        layoutFiles() shouldContainExactlyInAnyOrder listOf("manifest.json", "en.test", "de.test")
+    }
+
+    test("keeps the access times of hits once persisted") {
+        val cache = Cache(FixedSizeParser(), context, maxSize = 2L * ENTRY_SIZE, clock = clock)
+        cache.add("en", KeyboardData())
+        cache.add("fr", KeyboardData())
+        cache.load("en") shouldBeSome KeyboardData()
+        cache.persistAccessTimes()
+
+        val restarted = Cache(FixedSizeParser(), context, maxSize = 2L * ENTRY_SIZE, clock = clock)
+        restarted.add("de", KeyboardData())
+        restarted.load("fr").shouldBeNone()
+        restarted.load("en") shouldBeSome KeyboardData()
+    }
+})
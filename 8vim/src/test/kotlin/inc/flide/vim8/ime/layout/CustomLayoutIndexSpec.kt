@@ -0,0 +1,37 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import io.kotest.assertions.arrow.core.shouldBeNone
+import io.kotest.assertions.arrow.core.shouldBeSome
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.engine.spec.tempdir
+import io.mockk.every
+import io.mockk.mockk
+
+class CustomLayoutIndexSpec : FunSpec({
+    val context = mockk<Context>()
+    val metadata = LayoutMetadata(10, 20)
+
+    beforeTest {
+        every { context.cacheDir } returns tempdir()
+    }
+
+    test("finds the md5 of an unchanged layout") {
+        val index = CustomLayoutIndex(context)
+        index.add("content://a", metadata, "md5")
+        index.md5("content://a", metadata) shouldBeSome "md5"
+        index.md5("content://b", metadata).shouldBeNone()
+    }
+
+    test("forgets the md5 of a changed layout") {
+        val index = CustomLayoutIndex(context)
+        index.add("content://a", metadata, "md5")
+        index.md5("content://a", metadata.copy(size = 11)).shouldBeNone()
+        index.md5("content://a", metadata.copy(lastModified = 21)).shouldBeNone()
+    }
+
+    test("keeps its entries across instances") {
+        CustomLayoutIndex(context).add("content://a", metadata, "md5")
+        CustomLayoutIndex(context).md5("content://a", metadata) shouldBeSome "md5"
+    }
+})
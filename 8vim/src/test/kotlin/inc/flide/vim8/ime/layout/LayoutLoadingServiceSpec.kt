@@ -0,0 +1,216 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.Context
+import arrow.core.Either
+import arrow.core.left
+import arrow.core.right
+import inc.flide.vim8.arbitraries.Arbitraries.arbEmbeddedLayout
+import inc.flide.vim8.arbitraries.Arbitraries.arbKeyboardData
+import inc.flide.vim8.ime.LayoutLoader
+import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import io.kotest.property.arbitrary.next
+import io.mockk.clearMocks
+import io.mockk.every
+import io.mockk.justRun
+import io.mockk.mockk
+import io.mockk.mockkObject
+import io.mockk.mockkStatic
+import io.mockk.verify
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicReference
+
+private class QueueExecutor : Executor {
+    val queue = ArrayDeque<Runnable>()
+
+    @Synchronized
+    override fun execute(command: Runnable) {
+        queue.addLast(command)
+    }
+
+    fun runAll() {
+        while (queue.isNotEmpty()) {
+            queue.removeFirst().run()
+        }
+    }
+}
+
+class LayoutLoadingServiceSpec : FunSpec({
+    val layoutLoader = mockk<LayoutLoader>()
+    val context = mockk<Context>()
+    val worker = QueueExecutor()
+    val mainThread = QueueExecutor()
+    val pool = Executor { it.run() }
+    val timer = mockk<ScheduledExecutorService>(relaxed = true)
+    val service = LayoutLoadingService(layoutLoader, context, worker, mainThread, pool, timer)
+
+    beforeSpec {
+        mockkStatic(::embeddedLayouts)
+        mockkObject(MainKeypadActionListener)
+        justRun { MainKeypadActionListener.rebuildKeyboardData(any()) }
+    }
+
+    afterTest {
+        clearMocks(MainKeypadActionListener, answers = false)
+    }
+
+    test("loads off the main thread") {
+        val layout = arbEmbeddedLayout.next()
+        val keyboardData = arbKeyboardData.next()
+        every { layout.loadKeyboardData(any(), any()) } returns keyboardData.right()
+        var loaded: KeyboardData? = null
+
+        service.load(layout) { loaded = it.getOrNull() }
+        mainThread.queue.shouldBeEmpty()
+        verify(exactly = 0) { layout.loadKeyboardData(any(), any()) }
+
+        worker.runAll()
+        verify(exactly = 0) { MainKeypadActionListener.rebuildKeyboardData(any()) }
+
+        mainThread.runAll()
+        verify { MainKeypadActionListener.rebuildKeyboardData(keyboardData) }
+        loaded shouldBe keyboardData
+    }
+
+    test("only publishes the latest request") {
+        val first = arbEmbeddedLayout.next()
+        val second = arbEmbeddedLayout.next()
+        val firstKeyboardData = arbKeyboardData.next()
+        val secondKeyboardData = arbKeyboardData.next()
+        every { first.loadKeyboardData(any(), any()) } returns firstKeyboardData.right()
+        every { second.loadKeyboardData(any(), any()) } returns secondKeyboardData.right()
+        val loaded = mutableListOf<KeyboardData?>()
+
+        service.load(first) { loaded.add(it.getOrNull()) }
+        service.load(second) { loaded.add(it.getOrNull()) }
+        worker.runAll()
+        mainThread.runAll()
+
+        verify(exactly = 0) { MainKeypadActionListener.rebuildKeyboardData(firstKeyboardData) }
+        verify { MainKeypadActionListener.rebuildKeyboardData(secondKeyboardData) }
+        loaded shouldBe listOf(firstKeyboardData, secondKeyboardData)
+    }
+
+    test("keeps the last published layout when loading fails") {
+        val layout = arbEmbeddedLayout.next()
+        every { layout.loadKeyboardData(any(), any()) } returns
+            ExceptionWrapperError(Exception()).left()
+        var loaded: KeyboardData? = arbKeyboardData.next()
+
+        service.load(layout) { loaded = it.getOrNull() }
+        worker.runAll()
+        mainThread.runAll()
+
+        verify(exactly = 0) { MainKeypadActionListener.rebuildKeyboardData(any()) }
+        loaded shouldBe null
+    }
+
+    test("loads batches concurrently in a deterministic order") {
+        val threads = mutableListOf<Thread>()
+        val concurrentPool = Executor { task ->
+            Thread(task).also { synchronized(threads) { threads.add(it) } }.start()
+        }
+        val batchService =
+            LayoutLoadingService(layoutLoader, context, worker, mainThread, concurrentPool, timer)
+        val items = listOf(3, 2, 1)
+        val progress = mutableListOf<Pair<Int, Int>>()
+        var loaded: Map<Int, Either<Throwable, Int>>? = null
+
+        batchService.submitAll(
+            items,
+            { item -> Thread.sleep(item * 20L).let { item * 10 } },
+            onProgress = { done, total -> progress.add(done to total) }
+        ) { loaded = it }
+        worker.queue.shouldBeEmpty()
+        synchronized(threads) { threads.toList() }.forEach { it.join() }
+        mainThread.runAll()
+
+        loaded!!.toList() shouldBe listOf(3 to 30.right(), 2 to 20.right(), 1 to 10.right())
+        progress shouldBe listOf(1 to 3, 2 to 3, 3 to 3)
+    }
+
+    test("times batch items out from their submission") {
+        val stalledPool = QueueExecutor()
+        val timeouts = mutableListOf<Runnable>()
+        val batchTimer = mockk<ScheduledExecutorService>()
+        every { batchTimer.schedule(any<Runnable>(), any(), any()) } answers {
+            timeouts.add(firstArg())
+            mockk(relaxed = true)
+        }
+        val batchService =
+            LayoutLoadingService(layoutLoader, context, worker, mainThread, stalledPool, batchTimer)
+        val ran = mutableListOf<Int>()
+        var loaded: Map<Int, Either<Throwable, Int>>? = null
+
+        batchService.submitAll(listOf(1, 2), { item -> item.also { ran.add(it) } }, timeout = 1) {
+            loaded = it
+        }
+        verify(exactly = 2) { batchTimer.schedule(any<Runnable>(), 1L, TimeUnit.MILLISECONDS) }
+
+        timeouts.first().run()
+        stalledPool.runAll()
+        mainThread.runAll()
+
+        ran shouldBe listOf(2)
+        loaded!![1]!!.leftOrNull().shouldBeInstanceOf<TimeoutException>()
+        loaded!![2] shouldBe 2.right()
+    }
+
+    test("interrupts batch items which time out while running") {
+        val timeouts = mutableListOf<Runnable>()
+        val batchTimer = mockk<ScheduledExecutorService>()
+        every { batchTimer.schedule(any<Runnable>(), any(), any()) } answers {
+            timeouts.add(firstArg())
+            mockk(relaxed = true)
+        }
+        val started = CountDownLatch(1)
+        var interrupted = false
+        val thread = AtomicReference<Thread>()
+        val threadPool = Executor { task -> Thread(task).also { thread.set(it) }.start() }
+        val batchService =
+            LayoutLoadingService(layoutLoader, context, worker, mainThread, threadPool, batchTimer)
+        var loaded: Map<Int, Either<Throwable, Int>>? = null
+
+        batchService.submitAll(
+            listOf(1),
+            { item ->
+                started.countDown()
+                try {
+                    Thread.sleep(Long.MAX_VALUE)
+                } catch (e: InterruptedException) {
+                    interrupted = true
+                    throw e
+                }
+                item
+            },
+            timeout = 1
+        ) { loaded = it }
+        started.await()
+        timeouts.single().run()
+        thread.get().join()
+        mainThread.runAll()
+
+        interrupted shouldBe true
+        loaded!![1]!!.leftOrNull().shouldBeInstanceOf<TimeoutException>()
+    }
+
+    test("prefetches without publishing") {
+        val layout = arbEmbeddedLayout.next()
+        every { layout.loadKeyboardData(any(), any()) } returns arbKeyboardData.next().right()
+
+        service.prefetch(layout)
+        worker.runAll()
+
+        verify { layout.loadKeyboardData(any(), any()) }
+        mainThread.queue.shouldBeEmpty()
+    }
+})
@@ -0,0 +1,53 @@
+package inc.flide.vim8.ime.layout
+
+import android.content.ComponentCallbacks2
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import io.kotest.assertions.arrow.core.shouldBeNone
+import io.kotest.assertions.arrow.core.shouldBeSome
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.datatest.withData
+import io.kotest.matchers.shouldBe
+
+// An empty layout is estimated at 256 bytes.
+private const val ENTRY_SIZE = 256L
+
+class LayoutMemoryCacheSpec : FunSpec({
+    test("loads what was added") {
+        val cache = LayoutMemoryCache()
+        cache.add("en", KeyboardData())
+        cache.load("en") shouldBeSome KeyboardData()
+        cache.load("fr").shouldBeNone()
+    }
+
+    test("evicts the least recently used entries") {
+        val cache = LayoutMemoryCache(maxSize = 2 * ENTRY_SIZE)
+        cache.add("en", KeyboardData())
+        cache.add("fr", KeyboardData())
+        cache.load("en").shouldBeSome()
+        cache.add("de", KeyboardData())
+        cache.load("fr").shouldBeNone()
+        cache.load("en").shouldBeSome()
+        cache.load("de").shouldBeSome()
+    }
+
+    context("gives memory back when asked to") {
+        withData(
+            nameFn = { (level, kept) -> "level $level keeps $kept entries" },
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE to 2,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW to 1,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL to 0,
+            ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN to 1,
+            ComponentCallbacks2.TRIM_MEMORY_BACKGROUND to 0,
+            ComponentCallbacks2.TRIM_MEMORY_MODERATE to 0,
+            ComponentCallbacks2.TRIM_MEMORY_COMPLETE to 0
+        ) { (level, kept) ->
+            val cache = LayoutMemoryCache(maxSize = 2 * ENTRY_SIZE)
+            cache.add("en", KeyboardData())
+            cache.add("fr", KeyboardData())
+            cache.onTrimMemory(level)
+            listOf("en", "fr").count { cache.load(it).isSome() } shouldBe kept
+            // The least recently used entries go first.
+            if (kept == 1) cache.load("fr").shouldBeSome()
+        }
+    }
+})
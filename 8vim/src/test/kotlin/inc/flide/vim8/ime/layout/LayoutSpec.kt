@@ -2,22 +2,30 @@ package inc.flide.vim8.ime.layout
 
 import android.content.ContentResolver
 import android.content.Context
-import android.content.res.Resources
+import android.content.res.AssetManager
 import android.database.Cursor
 import android.net.Uri
+import android.provider.DocumentsContract.Document
 import android.provider.OpenableColumns
 import arrow.core.None
 import arrow.core.right
+import arrow.core.some
 import inc.flide.vim8.arbitraries.Arbitraries
 import inc.flide.vim8.cache
+import inc.flide.vim8.customLayoutIndex
 import inc.flide.vim8.ime.LayoutLoader
 import inc.flide.vim8.ime.layout.models.KeyboardData
 import inc.flide.vim8.ime.layout.models.error.ExceptionWrapperError
 import inc.flide.vim8.ime.layout.models.info
 import inc.flide.vim8.ime.layout.models.yaml.name
+import inc.flide.vim8.layoutManifest
+import inc.flide.vim8.layoutMemoryCache
 import io.kotest.assertions.arrow.core.shouldBeLeft
 import io.kotest.assertions.arrow.core.shouldBeRight
+import io.kotest.assertions.arrow.core.shouldBeSome
 import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.types.shouldBeSameInstanceAs
 import io.kotest.property.arbitrary.next
 import io.mockk.clearMocks
 import io.mockk.clearStaticMockk
@@ -25,64 +33,97 @@ import io.mockk.every
 import io.mockk.mockk
 import io.mockk.mockkStatic
 import io.mockk.spyk
-import java.io.InputStream
+import io.mockk.verify
 import org.apache.commons.codec.digest.DigestUtils
 
 class LayoutSpec : FunSpec({
     val context = mockk<Context>(relaxed = true)
-    val resources = mockk<Resources>()
+    val assets = mockk<AssetManager>()
     val contentResolver = mockk<ContentResolver>()
     val cache = mockk<Cache>(relaxed = true)
-    val inputStream = mockk<InputStream>(relaxed = true)
+    val customLayoutIndex = mockk<CustomLayoutIndex>(relaxed = true)
+    val memoryCache = LayoutMemoryCache()
+    val content = "layers: {}"
+    val inputStream = content.byteInputStream()
     val layoutLoader = mockk<LayoutLoader>()
+    val manifest = LayoutManifest(
+        listOf(
+            LayoutManifestEntry("en", "", 1, "a1"),
+            LayoutManifestEntry("fr", "Bépo", 2, "b2"),
+            LayoutManifestEntry("de", "", 0, "c3")
+        )
+    )
 
     beforeSpec {
-        mockkStatic(DigestUtils::class)
         mockkStatic(Context::cache)
         every { context.cache() } returns lazy { cache }
-        every { DigestUtils.md5Hex(any<InputStream>()) } returns ""
-        every { context.resources } returns resources
+        every { context.customLayoutIndex() } returns lazy { customLayoutIndex }
+        every { context.layoutMemoryCache() } returns lazy { memoryCache }
+        every { context.layoutManifest() } returns lazy { manifest }
+        every { context.assets } returns assets
         every { context.contentResolver } returns contentResolver
-        every { context.packageName } returns ""
     }
 
     beforeTest {
+        memoryCache.clear()
         every { cache.load(any()) } returns None
+        every { customLayoutIndex.md5(any(), any()) } returns None
     }
 
     context("Embedded layout") {
-
-        beforeTest {
-            every { resources.getIdentifier(any(), any(), any()) } returns 0
-        }
-
         context("loading InputStream") {
             test("the resource is found") {
-                every { resources.openRawResource(any()) } returns inputStream
+                every { assets.open("layouts/test.cbor") } returns inputStream
                 EmbeddedLayout("test").inputStream(context) shouldBeRight inputStream
             }
 
             test("the resource is not found") {
                 val exception = Exception("resource not found")
-                every { resources.openRawResource(any()) } throws exception
+                every { assets.open(any()) } throws exception
                 EmbeddedLayout("test").inputStream(context) shouldBeLeft ExceptionWrapperError(
                     exception
                 )
             }
         }
 
+        test("embedded layouts are listed from the manifest") {
+            embeddedLayouts(context) shouldContainExactly listOf(
+                EmbeddedLayout("fr") to "Bépo (2 layers)",
+                EmbeddedLayout("en") to "English"
+            )
+        }
+
+        test("md5 is keyed by the content hash of the manifest") {
+            EmbeddedLayout("en").md5(context, None) shouldBeSome "en-a1"
+            EmbeddedLayout("xx").md5(context, None) shouldBeSome "xx"
+        }
+
         test("loadKeyboardData") {
             val layout = spyk(EmbeddedLayout("en"))
             every { layout.inputStream(any()) } returns inputStream.right()
             val keyboardData = Arbitraries.arbKeyboardData.next()
             every {
-                layoutLoader.loadKeyboardData(any())
+                layoutLoader.loadCompiledKeyboardData(any())
             } returns keyboardData.right()
             layout.loadKeyboardData(layoutLoader, context) shouldBeRight KeyboardData.info.name.set(
                 keyboardData,
                 "English"
             )
         }
+
+        test("a layout loaded before is served from memory") {
+            val layout = spyk(EmbeddedLayout("en"))
+            every { layout.inputStream(any()) } returns inputStream.right()
+            val keyboardData = Arbitraries.arbKeyboardData.next()
+            every {
+                layoutLoader.loadCompiledKeyboardData(any())
+            } returns keyboardData.right()
+            val loaded = layout.loadKeyboardData(layoutLoader, context).shouldBeRight()
+            val reloaded = layout.loadKeyboardData(layoutLoader, context).shouldBeRight()
+            reloaded shouldBeSameInstanceAs loaded
+            verify(exactly = 1) { cache.load(any()) }
+            verify(exactly = 1) { layoutLoader.loadCompiledKeyboardData(any()) }
+        }
     }
 
     context("Custom layout") {
@@ -138,13 +179,65 @@ class LayoutSpec : FunSpec({
                 )
             }
         }
+
+        context("cache key") {
+            val layout = spyk(CustomLayout(uri))
+            val keyboardData = Arbitraries.arbKeyboardData.next()
+            val metadata = LayoutMetadata(content.length.toLong(), 42)
+            val md5 = DigestUtils.md5Hex(content)
+
+            beforeTest {
+                every { uri.scheme } returns "content"
+                val cursor = mockk<Cursor>(relaxed = true)
+                every { contentResolver.query(any(), any(), any(), any(), any()) } returns cursor
+                every { cursor.count } returns 1
+                every { cursor.getColumnIndex(OpenableColumns.SIZE) } returns 0
+                every { cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED) } returns 1
+                every { cursor.getLong(0) } returns metadata.size
+                every { cursor.getLong(1) } returns metadata.lastModified
+            }
+
+            afterTest {
+                clearMocks(layout, answers = false)
+            }
+
+            test("the metadata is read from the content resolver") {
+                layout.metadata(context) shouldBeSome metadata
+            }
+
+            test("an unchanged layout is neither read nor hashed") {
+                every { customLayoutIndex.md5(uri.toString(), metadata) } returns md5.some()
+                every { cache.load(md5) } returns keyboardData.some()
+                layout.loadKeyboardData(layoutLoader, context) shouldBeRight keyboardData
+                verify(exactly = 0) { layout.inputStream(any()) }
+            }
+
+            test("a changed layout is hashed while it is parsed") {
+                every { layout.inputStream(any()) } returns content.byteInputStream().right()
+                every { layoutLoader.loadKeyboardData(any()) } returns keyboardData.right()
+                layout.loadKeyboardData(layoutLoader, context).shouldBeRight()
+                verify(exactly = 1) { layout.inputStream(any()) }
+                verify(exactly = 1) { layout.metadata(any()) }
+                verify { cache.add(md5, any()) }
+                verify { customLayoutIndex.add(uri.toString(), metadata, md5) }
+            }
+
+            test("a layout without metadata is looked up by content before it is parsed") {
+                every { contentResolver.query(any(), any(), any(), any(), any()) } returns null
+                every { layout.inputStream(any()) } returns content.byteInputStream().right()
+                every { cache.load(md5) } returns keyboardData.some()
+                layout.loadKeyboardData(layoutLoader, context) shouldBeRight keyboardData
+                verify(exactly = 0) { layoutLoader.loadKeyboardData(any()) }
+                verify(exactly = 0) { customLayoutIndex.add(any(), any(), any()) }
+            }
+        }
     }
 
     afterTest {
-        clearMocks(resources, contentResolver, cache, layoutLoader)
+        clearMocks(assets, contentResolver, cache, customLayoutIndex, layoutLoader)
     }
 
     afterSpec {
-        clearStaticMockk(DigestUtils::class, Context::class)
+        clearStaticMockk(Context::class)
     }
 })
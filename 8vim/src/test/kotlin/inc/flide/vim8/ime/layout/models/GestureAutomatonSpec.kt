@@ -0,0 +1,87 @@
+package inc.flide.vim8.ime.layout.models
+
+import inc.flide.vim8.arbitraries.Arbitraries
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.shouldBe
+import io.kotest.property.Arb
+import io.kotest.property.arbitrary.map
+import io.kotest.property.checkAll
+
+class GestureAutomatonSpec : FunSpec({
+    val arbActionMap = Arb.map(
+        Arbitraries.arbMovementSequence,
+        Arbitraries.arbKeyboardAction,
+        1,
+        20
+    )
+
+    test("every movement sequence of the action map reaches its action") {
+        checkAll(arbActionMap) { actionMap ->
+            val automaton = GestureAutomaton.compile(actionMap)
+            actionMap.forEach { (movementSequence, action) ->
+                val state = automaton.walk(GestureAutomaton.START_STATE, movementSequence)
+                automaton.action(state) shouldBe action
+            }
+        }
+    }
+
+    test("walking a movement sequence one position at a time matches the action map") {
+        checkAll(arbActionMap, Arbitraries.arbMovementSequence) { actionMap, movementSequence ->
+            val automaton = GestureAutomaton.compile(actionMap)
+            val state = movementSequence.fold(GestureAutomaton.START_STATE) { acc, position ->
+                automaton.next(acc, position)
+            }
+            automaton.action(state) shouldBe actionMap[movementSequence]
+        }
+    }
+
+    test("the dead state never leaves itself") {
+        val automaton = GestureAutomaton.compile(emptyMap())
+        FingerPosition.values().forEach {
+            automaton.next(GestureAutomaton.DEAD_STATE, it) shouldBe GestureAutomaton.DEAD_STATE
+            automaton.next(GestureAutomaton.START_STATE, it) shouldBe GestureAutomaton.DEAD_STATE
+        }
+        automaton.action(GestureAutomaton.DEAD_STATE).shouldBeNull()
+    }
+
+    test("the layer of a state is the layer of its action") {
+        checkAll(arbActionMap) { actionMap ->
+            val automaton = GestureAutomaton.compile(actionMap)
+            val keyboardData = KeyboardData(actionMap)
+            actionMap.keys.forEach { movementSequence ->
+                val state = automaton.walk(GestureAutomaton.START_STATE, movementSequence)
+                automaton.layer(state) shouldBe keyboardData.findLayer(movementSequence)
+            }
+            automaton.layer(GestureAutomaton.DEAD_STATE) shouldBe LayerLevel.FIRST
+        }
+    }
+
+    test("candidates are the characters reachable from a state") {
+        fun action(text: String) = KeyboardAction(
+            KeyboardActionType.INPUT_TEXT,
+            text,
+            text.uppercase(),
+            0,
+            0,
+            LayerLevel.FIRST
+        )
+        val inside = FingerPosition.INSIDE_CIRCLE
+        val actionMap = mapOf(
+            listOf(inside, FingerPosition.RIGHT, inside) to action("a"),
+            listOf(inside, FingerPosition.TOP, inside) to action("b")
+        )
+        val automaton = GestureAutomaton.compile(actionMap, listOf(CharacterSet("ab", "AB")))
+
+        fun candidatesOf(vararg movementSequence: FingerPosition) = automaton.candidates(
+            automaton.walk(GestureAutomaton.START_STATE, movementSequence.toList()),
+            LayerLevel.FIRST
+        )
+
+        candidatesOf(FingerPosition.INSIDE_CIRCLE) shouldBe 0b11
+        candidatesOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.RIGHT) shouldBe 0b01
+        candidatesOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.TOP) shouldBe 0b10
+        candidatesOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.LEFT) shouldBe 0
+        automaton.candidates(GestureAutomaton.START_STATE, LayerLevel.SECOND) shouldBe 0
+    }
+})
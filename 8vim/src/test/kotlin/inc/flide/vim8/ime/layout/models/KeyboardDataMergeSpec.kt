@@ -0,0 +1,60 @@
+package inc.flide.vim8.ime.layout.models
+
+import inc.flide.vim8.ime.layout.models.yaml.LayoutInfo
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.collections.shouldBeEmpty
+import io.kotest.matchers.collections.shouldContainExactly
+import io.kotest.matchers.maps.shouldContainExactly
+import io.kotest.matchers.shouldBe
+
+class KeyboardDataMergeSpec : FunSpec({
+    fun action(text: String) = KeyboardAction(
+        KeyboardActionType.INPUT_TEXT,
+        text,
+        text.uppercase(),
+        0,
+        0,
+        LayerLevel.FIRST
+    )
+
+    val top = listOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.TOP)
+    val left = listOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.LEFT)
+    val right = listOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.RIGHT)
+
+    test("keeps the actions which do not conflict") {
+        val common = KeyboardData(actionMap = mapOf(top to action("a")))
+        val layout = KeyboardData(
+            actionMap = mapOf(top to action("b"), left to action("c"), right to action("d")),
+            info = LayoutInfo(name = "layout")
+        )
+
+        val merged = common.mergeWith(layout)
+
+        merged.keyboardData.actionMap shouldContainExactly mapOf(
+            top to action("a"),
+            left to action("c"),
+            right to action("d")
+        )
+        merged.keyboardData.info shouldBe layout.info
+        merged.conflicts shouldContainExactly listOf(ActionConflict(top, action("a"), action("b")))
+    }
+
+    test("identical actions do not conflict") {
+        val common = KeyboardData(actionMap = mapOf(top to action("a")))
+        common.mergeWith(common).conflicts.shouldBeEmpty()
+    }
+
+    test("keeps the characters already set") {
+        val common = KeyboardData().setLowerCaseCharacters("abc", LayerLevel.FIRST)
+        val layout = KeyboardData()
+            .setLowerCaseCharacters("xyz", LayerLevel.FIRST)
+            .setLowerCaseCharacters("def", LayerLevel.SECOND)
+            .setUpperCaseCharacters("DEF", LayerLevel.SECOND)
+
+        val merged = common.mergeWith(layout).keyboardData
+
+        merged.lowerCaseCharacters(LayerLevel.FIRST).getOrNull() shouldBe "abc"
+        merged.lowerCaseCharacters(LayerLevel.SECOND).getOrNull() shouldBe "def"
+        merged.upperCaseCharacters(LayerLevel.SECOND).getOrNull() shouldBe "DEF"
+    }
+})
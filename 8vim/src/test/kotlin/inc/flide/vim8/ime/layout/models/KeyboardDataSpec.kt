@@ -54,4 +54,40 @@ class KeyboardDataSpec : DescribeSpec({
             }
         }
     }
+
+    describe("KeyboardDataBuilder") {
+        it("should build what the copying functions build") {
+            checkAll(
+                Arbitraries.arbKeyboardData,
+                Arbitraries.arbCharactersSet,
+                Exhaustive.enum<LayerLevel>()
+            ) { keyboardData, characterSet, layer ->
+                val actionMap = keyboardData.actionMap
+                val expected = KeyboardData()
+                    .addAllToActionMap(actionMap)
+                    .setLowerCaseCharacters(characterSet, layer)
+                    .setUpperCaseCharacters(characterSet, layer)
+                val builder = KeyboardDataBuilder()
+                actionMap.forEach { (movementSequence, action) ->
+                    builder.addAction(movementSequence, action)
+                }
+                builder.setLowerCaseCharacters(characterSet, layer)
+                    .setUpperCaseCharacters(characterSet, layer)
+                    .build() shouldBe expected
+            }
+        }
+
+        it("should freeze snapshots which later changes do not affect") {
+            checkAll(Arbitraries.arbKeyboardData) { keyboardData ->
+                val builder = KeyboardDataBuilder(keyboardData)
+                val snapshot = builder.build()
+                snapshot shouldBe keyboardData
+                builder.addAction(
+                    listOf(FingerPosition.NO_TOUCH),
+                    KeyboardAction(KeyboardActionType.INPUT_TEXT, "a", "A", 0, 0, LayerLevel.FIRST)
+                ).setLowerCaseCharacters("a", LayerLevel.FIRST)
+                snapshot shouldBe keyboardData
+            }
+        }
+    }
 })
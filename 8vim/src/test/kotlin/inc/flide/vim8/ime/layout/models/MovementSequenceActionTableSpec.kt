@@ -0,0 +1,34 @@
+package inc.flide.vim8.ime.layout.models
+
+import inc.flide.vim8.arbitraries.Arbitraries
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.property.Arb
+import io.kotest.property.arbitrary.enum
+import io.kotest.property.arbitrary.list
+import io.kotest.property.arbitrary.map
+import io.kotest.property.checkAll
+
+class MovementSequenceActionTableSpec : FunSpec({
+    val arbMovementSequence = Arb.list(Arb.enum<FingerPosition>(), 1..25)
+    val arbActionMap = Arb.map(arbMovementSequence, Arbitraries.arbKeyboardAction, 0, 50)
+
+    test("lookups match the action map") {
+        checkAll(arbActionMap, arbMovementSequence) { actionMap, movementSequence ->
+            val table = MovementSequenceActionTable(actionMap)
+            table.size shouldBe actionMap.size
+            actionMap.forEach { (key, action) -> table[key] shouldBe action }
+            table[movementSequence] shouldBe actionMap[movementSequence]
+            table.containsKey(movementSequence) shouldBe actionMap.containsKey(movementSequence)
+        }
+    }
+
+    test("packed lookups match the action map") {
+        checkAll(arbActionMap) { actionMap ->
+            val table = MovementSequenceActionTable(actionMap)
+            actionMap
+                .filterKeys { it.size <= PackedMovementSequence.MAX_SIZE }
+                .forEach { (key, action) -> table[key.pack()] shouldBe action }
+        }
+    }
+})
@@ -0,0 +1,51 @@
+package inc.flide.vim8.ime.layout.models
+
+import inc.flide.vim8.arbitraries.Arbitraries
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.booleans.shouldBeFalse
+import io.kotest.matchers.booleans.shouldBeTrue
+import io.kotest.matchers.shouldBe
+import io.kotest.property.Arb
+import io.kotest.property.arbitrary.enum
+import io.kotest.property.arbitrary.int
+import io.kotest.property.arbitrary.list
+import io.kotest.property.checkAll
+
+class PackedMovementSequenceSpec : FunSpec({
+    test("packing keeps every position and the size") {
+        checkAll(Arbitraries.arbMovementSequence) { movementSequence ->
+            val packed = movementSequence.pack()
+            packed.size shouldBe movementSequence.size
+            packed.toMovementSequence() shouldBe movementSequence
+        }
+    }
+
+    test("equal movement sequences have equal packed values") {
+        checkAll(Arbitraries.arbMovementSequence, Arbitraries.arbMovementSequence) { a, b ->
+            (a.pack() == b.pack()) shouldBe (a == b)
+        }
+    }
+
+    test("take, subSequence and removeRange behave like the list operations") {
+        checkAll(Arbitraries.arbMovementSequence, Arb.int(0..10), Arb.int(0..10)) { seq, x, y ->
+            val from = minOf(x, y, seq.size)
+            val to = minOf(maxOf(x, y), seq.size)
+            val packed = seq.pack()
+            packed.take(from).toMovementSequence() shouldBe seq.take(from)
+            packed.subSequence(from, to).toMovementSequence() shouldBe seq.subList(from, to)
+            packed.removeRange(from, to).toMovementSequence() shouldBe
+                seq.subList(0, from) + seq.subList(to, seq.size)
+            packed.startsWith(seq.take(from).pack()).shouldBeTrue()
+        }
+    }
+
+    test("sequences longer than the packed capacity are not exact") {
+        checkAll(Arb.list(Arb.enum<FingerPosition>(), 20..31)) { movementSequence ->
+            val packed = movementSequence.pack()
+            packed.isExact.shouldBeFalse()
+            packed.size shouldBe movementSequence.size
+            packed.take(PackedMovementSequence.MAX_SIZE).toMovementSequence() shouldBe
+                movementSequence.take(PackedMovementSequence.MAX_SIZE)
+        }
+    }
+})
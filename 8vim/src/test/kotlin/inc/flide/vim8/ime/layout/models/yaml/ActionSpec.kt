@@ -30,8 +30,10 @@ class ActionSpec : FunSpec({
         withData(
             nameFn = { "${it.first} -> ${it.second}" },
             ("KEYCODE_A" to KeyEvent.KEYCODE_A),
+            ("keycode_del" to KeyEvent.KEYCODE_DEL),
             ("MOVE_CURRENT_END_POINT_LEFT" to CustomKeycode.MOVE_CURRENT_END_POINT_LEFT.keyCode),
-            ("NOT_VALID" to 0)
+            ("NOT_VALID" to 0),
+            ("" to 0)
         ) { (keyCodeString, value) ->
             Action(keyCodeString = keyCodeString).keyCode() shouldBe value
         }
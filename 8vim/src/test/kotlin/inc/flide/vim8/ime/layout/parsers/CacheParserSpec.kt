@@ -1,22 +1,72 @@
 package inc.flide.vim8.ime.layout.parsers
 
 import inc.flide.vim8.arbitraries.Arbitraries
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import io.kotest.assertions.arrow.core.shouldBeNone
 import io.kotest.assertions.arrow.core.shouldBeSome
 import io.kotest.core.spec.style.FunSpec
+import io.kotest.datatest.withData
+import io.kotest.matchers.booleans.shouldBeFalse
 import io.kotest.matchers.booleans.shouldBeTrue
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.shouldBe
+import io.kotest.property.arbitrary.next
 import io.kotest.property.checkAll
 import java.io.File
 
 class CacheParserSpec : FunSpec({
-    val file = File.createTempFile("8vim", ".cbor")
-    val parser = CborParser()
-
     context("Saving/loading") {
-        test("Success") {
+        withData(
+            nameFn = { it.fileExtension },
+            CborParser(),
+            FlatParser(),
+            FallbackCacheParser(FlatParser(), CborParser())
+        ) { parser ->
+            val file = File.createTempFile("8vim", ".${parser.fileExtension}")
             checkAll(Arbitraries.arbKeyboardData) { keyboardData ->
                 parser.save(file, keyboardData).shouldBeTrue()
                 parser.load(file) shouldBeSome keyboardData
             }
         }
     }
+
+    test("falls back for keyboard data the flat format cannot save") {
+        val parser = FallbackCacheParser(FlatParser(), CborParser())
+        val file = File.createTempFile("8vim", ".${parser.fileExtension}")
+        val keyboardData = Arbitraries.arbKeyboardData.next()
+        val action = keyboardData.actionMap.values.first()
+        val tooLong = keyboardData.copy(
+            actionMap = keyboardData.actionMap + (List(20) { FingerPosition.TOP } to action)
+        )
+        parser.save(file, tooLong).shouldBeTrue()
+        parser.load(file) shouldBeSome tooLong
+    }
+
+    context("Flat keyboard data") {
+        val parser = FlatParser()
+        val file = File.createTempFile("8vim", ".kbd")
+
+        test("looks actions up by movement sequence") {
+            val keyboardData = Arbitraries.arbKeyboardData.next()
+            parser.save(file, keyboardData).shouldBeTrue()
+            val actionMap = parser.load(file).getOrNull()!!.actionMap
+            keyboardData.actionMap.forEach { (movementSequence, action) ->
+                actionMap[movementSequence] shouldBe action
+            }
+            actionMap[listOf(FingerPosition.LONG_PRESS_END)].shouldBeNull()
+        }
+
+        test("refuses movement sequences that cannot be packed") {
+            val keyboardData = Arbitraries.arbKeyboardData.next()
+            val tooLong = List(20) { FingerPosition.TOP }
+            val action = keyboardData.actionMap.values.first()
+            val actionMap = keyboardData.actionMap + (tooLong to action)
+            parser.save(file, keyboardData.copy(actionMap = actionMap)).shouldBeFalse()
+        }
+
+        test("rejects files of another format") {
+            file.writeBytes(ByteArray(32))
+            parser.load(file).shouldBeNone()
+        }
+    }
 })
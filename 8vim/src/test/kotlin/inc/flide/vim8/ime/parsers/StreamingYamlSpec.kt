@@ -0,0 +1,140 @@
+package inc.flide.vim8.ime.parsers
+
+import android.view.KeyEvent
+import inc.flide.vim8.ime.layout.models.error.InvalidLayoutError
+import inc.flide.vim8.ime.layout.parsers.LayoutParser
+import inc.flide.vim8.ime.layout.parsers.StreamingYamlParser
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import io.kotest.assertions.arrow.core.shouldBeLeft
+import io.kotest.assertions.arrow.core.shouldBeRight
+import io.kotest.core.spec.style.DescribeSpec
+import io.kotest.datatest.withData
+import io.kotest.matchers.collections.shouldNotBeEmpty
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import io.mockk.clearStaticMockk
+import io.mockk.every
+import io.mockk.mockkStatic
+import java.io.File
+
+private fun LayoutParser.errorPaths(yaml: String): Set<String> =
+    readKeyboardData(yaml.byteInputStream())
+        .shouldBeLeft()
+        .shouldBeInstanceOf<InvalidLayoutError>()
+        .validationMessages
+        .map { it.path }
+        .toSet()
+
+class StreamingYamlSpec : DescribeSpec({
+    val yamlParser = YamlParser()
+    val streamingParser = StreamingYamlParser()
+
+    beforeSpec {
+        mockkStatic(KeyEvent::keyCodeFromString)
+        every { KeyEvent.keyCodeFromString(any()) } returns KeyEvent.KEYCODE_UNKNOWN
+        every { KeyEvent.keyCodeFromString("KEYCODE_A") } returns KeyEvent.KEYCODE_A
+    }
+
+    afterSpec {
+        clearStaticMockk(KeyEvent::class)
+    }
+
+    describe("Parsing a valid file") {
+        val embeddedLayouts = File("src/main/res/raw").listFiles { file ->
+            file.extension == "yaml"
+        }.orEmpty().sortedBy { it.name }
+        val testLayouts = listOf("valid_file", "hidden_layer", "one_layer", "multiple_layers")
+            .map { File(javaClass.getResource("/$it.yaml")!!.toURI()) }
+
+        it("finds the embedded layouts") {
+            embeddedLayouts.shouldNotBeEmpty()
+        }
+
+        withData(
+            nameFn = { it.name },
+            embeddedLayouts + testLayouts
+        ) { file ->
+            val expected = file.inputStream().use { yamlParser.readKeyboardData(it) }
+            val actual = file.inputStream().use { streamingParser.readKeyboardData(it) }
+            actual.shouldBeRight() shouldBe expected.shouldBeRight()
+        }
+    }
+
+    describe("Parsing files with error") {
+        withData(
+            nameFn = { it },
+            "invalid_file.yaml",
+            "extra_layers.yaml",
+            "no_layers.yaml"
+        ) { name ->
+            val yaml = javaClass.getResource("/$name")!!.readText()
+            streamingParser.errorPaths(yaml) shouldBe yamlParser.errorPaths(yaml)
+        }
+
+        it("it's not a YAML file") {
+            val inputStream = javaClass.getResourceAsStream("/invalid_file.xml")
+            streamingParser.readKeyboardData(inputStream).shouldBeLeft()
+        }
+
+        withData(
+            nameFn = { it.first },
+            "unknown type" to """
+                layers:
+                  hidden:
+                    - type: input_nothing
+                      key_code: keycode_a
+            """,
+            "missing lower case" to """
+                layers:
+                  default:
+                    sectors:
+                      top:
+                        parts:
+                          left:
+                            - upper_case: A
+            """,
+            "too many actions" to """
+                layers:
+                  default:
+                    sectors:
+                      top:
+                        parts:
+                          left:
+                            - lower_case: a
+                            - lower_case: b
+                            - lower_case: c
+                            - lower_case: d
+                            - lower_case: e
+            """,
+            "invalid part" to """
+                layers:
+                  default:
+                    sectors:
+                      top:
+                        parts:
+                          top:
+                            - lower_case: a
+            """,
+            "invalid flags" to """
+                layers:
+                  hidden:
+                    - type: input_key
+                      key_code: keycode_a
+                      flags: [meta_ctrl_on, -1, meta_nothing, true]
+                      movement_sequence: [top, nowhere]
+            """,
+            "invalid info" to """
+                info:
+                  name: 1
+                  rtl: maybe
+                  contact:
+                    phone: "123"
+                layers:
+                  hidden: []
+            """
+        ) { (_, yaml) ->
+            val layout = yaml.trimIndent()
+            streamingParser.errorPaths(layout) shouldBe yamlParser.errorPaths(layout)
+        }
+    }
+})
@@ -161,6 +161,36 @@ class YamlSpec : DescribeSpec({
         }
     }
 
+    describe("Parsing a trusted file") {
+        it("load the same KeyboardData") {
+            val expected = javaClass.getResourceAsStream("/valid_file.yaml").use {
+                YamlParser().readKeyboardData(it).shouldBeRight()
+            }
+            val inputStream = javaClass.getResourceAsStream("/valid_file.yaml")
+            val layoutParser = YamlParser(trusted = true)
+            layoutParser.readKeyboardData(inputStream) shouldBeRight expected
+        }
+
+        it("skips the validation") {
+            val layout = """
+                layers:
+                  default:
+                    sectors:
+                      top:
+                        parts:
+                          left:
+                            - lower_case: a
+                            - lower_case: b
+                            - lower_case: c
+                            - lower_case: d
+                            - lower_case: e
+            """.trimIndent()
+            YamlParser().readKeyboardData(layout.byteInputStream()).shouldBeLeft()
+            YamlParser(trusted = true).readKeyboardData(layout.byteInputStream())
+                .shouldBeRight().totalLayers shouldBe 1
+        }
+    }
+
     describe("Paring files with error") {
 
         it("not a valid layout") {
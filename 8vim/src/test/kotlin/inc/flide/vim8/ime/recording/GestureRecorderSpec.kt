@@ -0,0 +1,27 @@
+package inc.flide.vim8.ime.recording
+
+import inc.flide.vim8.geometry.Circle
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.engine.spec.tempdir
+import io.kotest.matchers.booleans.shouldBeTrue
+import io.kotest.matchers.shouldBe
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class GestureRecorderSpec : FunSpec({
+    test("writes the recording on its executor") {
+        val file = File(tempdir(), "gestures/recording.8vgr")
+        val executor = Executors.newSingleThreadExecutor()
+        val circle = Circle()
+        circle.radius = 56f
+
+        val recorder = GestureRecorder(file, executor)
+        recorder.writeGeometry(circle)
+        recorder.close()
+
+        executor.awaitTermination(1, TimeUnit.SECONDS).shouldBeTrue()
+        GestureRecordingReader.read(file.inputStream()) shouldBe
+            listOf(GestureRecord.Geometry(0f, 0f, 56f, 0f, 0f))
+    }
+})
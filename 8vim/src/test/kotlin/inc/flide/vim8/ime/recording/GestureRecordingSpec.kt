@@ -0,0 +1,48 @@
+package inc.flide.vim8.ime.recording
+
+import inc.flide.vim8.geometry.Circle
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeInstanceOf
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+class GestureRecordingSpec : FunSpec({
+    test("records read back as written") {
+        val circle = Circle()
+        circle.centre.x = 12f
+        circle.centre.y = 34f
+        circle.radius = 56f
+        circle.edgeHysteresis = 5.6f
+        circle.sectorHysteresis = 0.15f
+        val output = ByteArrayOutputStream()
+        GestureRecordingWriter(output).use {
+            it.writeGeometry(circle)
+            it.writeTouch(TouchAction.MOVE, 2)
+            it.writeSample(1L, 1f, 2f)
+            it.writeSample(2L, 3f, 4f)
+            it.writeTouch(TouchAction.UP, 1)
+            it.writeSample(3L, 5f, 6f)
+        }
+
+        val records = GestureRecordingReader.read(ByteArrayInputStream(output.toByteArray()))
+
+        records shouldHaveSize 3
+        records[0] shouldBe GestureRecord.Geometry(12f, 34f, 56f, 5.6f, 0.15f)
+        val move = records[1].shouldBeInstanceOf<GestureRecord.Touch>()
+        move.action shouldBe TouchAction.MOVE
+        move.times.toList() shouldBe listOf(1L, 2L)
+        move.xs.toList() shouldBe listOf(1f, 3f)
+        move.ys.toList() shouldBe listOf(2f, 4f)
+        records[2].shouldBeInstanceOf<GestureRecord.Touch>().action shouldBe TouchAction.UP
+    }
+
+    test("other files are rejected") {
+        shouldThrow<IOException> {
+            GestureRecordingReader.read(ByteArrayInputStream(ByteArray(8)))
+        }
+    }
+})
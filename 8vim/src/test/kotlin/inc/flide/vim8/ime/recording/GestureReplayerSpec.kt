@@ -0,0 +1,131 @@
+package inc.flide.vim8.ime.recording
+
+import android.content.Context
+import android.media.AudioManager
+import android.view.View
+import inc.flide.vim8.AppPrefs
+import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.appPreferenceModel
+import inc.flide.vim8.datastore.CachedPreferenceModel
+import inc.flide.vim8.datastore.model.PreferenceData
+import inc.flide.vim8.geometry.Circle
+import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.KeyboardAction
+import inc.flide.vim8.ime.layout.models.KeyboardActionType
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import io.kotest.core.spec.style.FunSpec
+import io.kotest.matchers.shouldBe
+import io.mockk.clearMocks
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class GestureReplayerSpec : FunSpec({
+    val prefs = mockk<AppPrefs>()
+    val inputFeedback = mockk<AppPrefs.InputFeedback>()
+    val feedbackEnabled = mockk<PreferenceData<Boolean>>()
+    val context = mockk<Context>()
+    val view = mockk<View>()
+    val mainInputMethodService = mockk<MainInputMethodService>(relaxed = true)
+    val committedText = StringBuilder()
+
+    fun action(text: String) = KeyboardAction(
+        KeyboardActionType.INPUT_TEXT,
+        text,
+        text.uppercase(),
+        0,
+        0,
+        LayerLevel.FIRST
+    )
+
+    val keyboardData = KeyboardData(
+        mapOf(
+            listOf(
+                FingerPosition.INSIDE_CIRCLE,
+                FingerPosition.RIGHT,
+                FingerPosition.INSIDE_CIRCLE
+            ) to action("a"),
+            listOf(FingerPosition.INSIDE_CIRCLE, FingerPosition.LONG_PRESS) to action("x")
+        )
+    )
+
+    fun record(block: GestureRecordingWriter.() -> Unit): List<GestureRecord> {
+        val output = ByteArrayOutputStream()
+        GestureRecordingWriter(output).use {
+            val circle = Circle()
+            circle.centre.x = 100f
+            circle.centre.y = 100f
+            circle.radius = 20f
+            it.writeGeometry(circle)
+            it.block()
+        }
+        return GestureRecordingReader.read(ByteArrayInputStream(output.toByteArray()))
+    }
+
+    fun GestureRecordingWriter.touch(action: TouchAction, time: Long, x: Float, y: Float) {
+        writeTouch(action, 1)
+        writeSample(time, x, y)
+    }
+
+    beforeSpec {
+        mockkStatic(::appPreferenceModel)
+        every { appPreferenceModel() } returns CachedPreferenceModel(prefs)
+        every { prefs.inputFeedback } returns inputFeedback
+        every { inputFeedback.soundEnabled } returns feedbackEnabled
+        every { inputFeedback.hapticEnabled } returns feedbackEnabled
+        every { feedbackEnabled.get() } returns false
+        every { view.context } returns context
+        every { context.getSystemService(Context.AUDIO_SERVICE) } returns
+            mockk<AudioManager>(relaxed = true)
+        MainKeypadActionListener.rebuildKeyboardData(keyboardData)
+    }
+
+    beforeTest {
+        committedText.clear()
+        every { mainInputMethodService.shiftState } returns MainInputMethodService.State.OFF
+        every { mainInputMethodService.sendText(any()) } answers {
+            committedText.append(firstArg<String?>().orEmpty())
+        }
+    }
+
+    test("replays a gesture into committed text") {
+        val records = record {
+            touch(TouchAction.DOWN, 1000, 100f, 100f)
+            writeTouch(TouchAction.MOVE, 3)
+            writeSample(1010, 130f, 102f)
+            writeSample(1020, 150f, 100f)
+            writeSample(1030, 100f, 101f)
+            touch(TouchAction.UP, 1040, 100f, 101f)
+        }
+
+        val statistics = GestureReplayer(mainInputMethodService, view).replay(records)
+
+        committedText.toString() shouldBe "a"
+        statistics.samples shouldBe 5
+    }
+
+    test("long press timers follow the recorded timestamps") {
+        val records = record {
+            touch(TouchAction.DOWN, 1000, 100f, 100f)
+            touch(TouchAction.UP, 1620, 100f, 100f)
+        }
+
+        GestureReplayer(mainInputMethodService, view).replay(records)
+
+        committedText.toString() shouldBe "xxx"
+    }
+
+    afterTest {
+        clearMocks(mainInputMethodService)
+    }
+
+    afterSpec {
+        MainKeypadActionListener.rebuildKeyboardData(null)
+        unmockkStatic(::appPreferenceModel)
+    }
+})
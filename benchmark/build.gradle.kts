@@ -0,0 +1,56 @@
+@file:Suppress("DSL_SCOPE_VIOLATION")
+
+import java.util.Locale
+import java.util.concurrent.Callable
+import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
+
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.ktlint)
+    alias(libs.plugins.jmh)
+}
+
+evaluationDependsOn(":8vim")
+
+val rawResources = rootProject.file("8vim/src/main/res/raw")
+
+// Only the layouts named after a language, as listed in the layout manifest. The others are the
+// common layers merged into every layout.
+val layouts = rawResources
+    .listFiles { file -> file.extension == "yaml" }
+    .orEmpty()
+    .map { it.nameWithoutExtension }
+    .filter { Locale.getISOLanguages().contains(it) }
+    .sorted()
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+tasks.withType<KotlinCompile> {
+    kotlinOptions {
+        jvmTarget = "17"
+    }
+}
+
+dependencies {
+    // :8vim is an Android application, so the benchmarks run on the classpath of its unit tests:
+    // the compiled app, its runtime dependencies, the mockable android.jar and mockk.
+    jmhImplementation(
+        // Resolved lazily without depending on the test task, which would run the unit tests.
+        files(Callable { project(":8vim").tasks.getByName<Test>("testDebugUnitTest").classpath })
+    )
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    benchmarkMode.set(listOf("avgt"))
+    timeUnit.set("us")
+    resultFormat.set("JSON")
+    jvmArgsAppend.add("-Dvim8.raw=${rawResources.absolutePath}")
+    benchmarkParameters.put("layout", objects.listProperty<String>().value(layouts))
+}
@@ -0,0 +1,51 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.ime.layout.models.KeyboardData
+import inc.flide.vim8.ime.layout.parsers.CacheParser
+import inc.flide.vim8.ime.layout.parsers.CborParser
+import inc.flide.vim8.ime.layout.parsers.FlatParser
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.io.File
+
+@State(Scope.Benchmark)
+open class CacheParserBenchmark {
+    @Param("en")
+    lateinit var layout: String
+
+    @Param("cbor", "kbd")
+    lateinit var format: String
+
+    private lateinit var cacheParser: CacheParser
+    private lateinit var keyboardData: KeyboardData
+    private lateinit var cached: File
+    private lateinit var scratch: File
+
+    @Setup
+    fun setup() {
+        cacheParser = listOf(CborParser(), FlatParser()).first { it.fileExtension == format }
+        keyboardData = Fixtures.layoutFile(layout).inputStream().use {
+            Fixtures.layoutLoader(YamlParser()).loadKeyboardData(it).getOrNull()!!
+        }
+        cached = File.createTempFile(layout, ".$format")
+        scratch = File.createTempFile(layout, ".$format")
+        cacheParser.save(cached, keyboardData)
+    }
+
+    @TearDown
+    fun tearDown() {
+        cached.delete()
+        scratch.delete()
+    }
+
+    @Benchmark
+    fun load() = cacheParser.load(cached)
+
+    @Benchmark
+    fun save() = cacheParser.save(scratch, keyboardData)
+}
@@ -0,0 +1,66 @@
+package inc.flide.vim8.benchmark
+
+import android.content.Context
+import android.content.res.Resources
+import android.media.AudioManager
+import android.view.View
+import arrow.core.None
+import inc.flide.vim8.AppPrefs
+import inc.flide.vim8.R
+import inc.flide.vim8.appPreferenceModel
+import inc.flide.vim8.datastore.CachedPreferenceModel
+import inc.flide.vim8.datastore.model.PreferenceData
+import inc.flide.vim8.ime.InputMethodActions
+import inc.flide.vim8.ime.YamlLayoutLoader
+import inc.flide.vim8.ime.layout.Cache
+import inc.flide.vim8.ime.layout.parsers.LayoutParser
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import java.io.File
+
+/**
+ * Stands in for the Android pieces the hot paths touch, the same way the unit tests do.
+ */
+object Fixtures {
+    private val rawResources = File(System.getProperty("vim8.raw", "../8vim/src/main/res/raw"))
+
+    private val rawResourceNames: Map<Int, String> by lazy {
+        R.raw::class.java.fields.associate { it.getInt(null) to it.name }
+    }
+
+    fun layoutFile(name: String): File = File(rawResources, "$name.yaml")
+
+    fun layoutLoader(layoutParser: LayoutParser): YamlLayoutLoader {
+        val resources = mockk<Resources>()
+        every { resources.openRawResource(any()) } answers {
+            layoutFile(rawResourceNames.getValue(firstArg())).inputStream()
+        }
+        val context = mockk<Context>()
+        every { context.resources } returns resources
+        val cache = mockk<Cache>(relaxed = true)
+        every { cache.load(any()) } returns None
+        return YamlLayoutLoader(layoutParser, cache, context)
+    }
+
+    fun inputMethodService(): InputMethodActions = StubInputMethodService()
+
+    fun view(): View {
+        val prefs = mockk<AppPrefs>()
+        val inputFeedback = mockk<AppPrefs.InputFeedback>()
+        val feedbackEnabled = mockk<PreferenceData<Boolean>>()
+        mockkStatic(::appPreferenceModel)
+        every { appPreferenceModel() } returns CachedPreferenceModel(prefs)
+        every { prefs.inputFeedback } returns inputFeedback
+        every { inputFeedback.soundEnabled } returns feedbackEnabled
+        every { inputFeedback.hapticEnabled } returns feedbackEnabled
+        every { feedbackEnabled.get() } returns false
+
+        val context = mockk<Context>()
+        every { context.getSystemService(Context.AUDIO_SERVICE) } returns
+            mockk<AudioManager>(relaxed = true)
+        val view = mockk<View>(relaxed = true)
+        every { view.context } returns context
+        return view
+    }
+}
@@ -0,0 +1,93 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.ime.actionlisteners.MainKeypadActionListener
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.KeyboardActionType
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import inc.flide.vim8.ime.layout.models.MovementSequence
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import inc.flide.vim8.ime.recording.GestureRecord
+import inc.flide.vim8.ime.recording.GestureReplayer
+import inc.flide.vim8.ime.recording.TouchAction
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+private const val CENTRE = 500f
+private const val RADIUS = 100f
+private const val SAMPLE_INTERVAL_MILLIS = 8L
+
+/**
+ * Decodes one continuous gesture typing every first layer character of the layout, from raw
+ * touch samples through Circle and MainKeypadActionListener.
+ */
+@State(Scope.Benchmark)
+open class GestureDecodingBenchmark {
+    @Param("en")
+    lateinit var layout: String
+
+    private lateinit var replayer: GestureReplayer
+    private lateinit var records: List<GestureRecord>
+
+    @Setup
+    fun setup() {
+        val keyboardData = Fixtures.layoutFile(layout).inputStream().use {
+            Fixtures.layoutLoader(YamlParser()).loadKeyboardData(it).getOrNull()!!
+        }
+        MainKeypadActionListener.rebuildKeyboardData(keyboardData)
+        replayer = GestureReplayer(Fixtures.inputMethodService(), Fixtures.view())
+
+        val movementSequences = keyboardData.actionMap
+            .filter { (movementSequence, action) ->
+                action.keyboardActionType == KeyboardActionType.INPUT_TEXT &&
+                    action.layer == LayerLevel.FIRST &&
+                    movementSequence.first() == FingerPosition.INSIDE_CIRCLE &&
+                    movementSequence.last() == FingerPosition.INSIDE_CIRCLE
+            }
+            .keys
+        records = listOf(
+            GestureRecord.Geometry(CENTRE, CENTRE, RADIUS, 0f, 0f),
+            touch(TouchAction.DOWN, listOf(FingerPosition.INSIDE_CIRCLE), 0),
+            touch(TouchAction.MOVE, movementSequences.flatMap { it.drop(1) }, 1),
+            touch(TouchAction.UP, listOf(FingerPosition.INSIDE_CIRCLE), 0)
+        )
+    }
+
+    @TearDown
+    fun tearDown() {
+        MainKeypadActionListener.rebuildKeyboardData(null)
+    }
+
+    @Benchmark
+    fun decode() = replayer.replay(records)
+
+    private fun touch(
+        action: TouchAction,
+        movementSequence: MovementSequence,
+        start: Long
+    ): GestureRecord.Touch {
+        val size = movementSequence.size
+        val xs = FloatArray(size)
+        val ys = FloatArray(size)
+        movementSequence.forEachIndexed { i, fingerPosition ->
+            val (dx, dy) = when (fingerPosition) {
+                FingerPosition.RIGHT -> 2 to 0
+                FingerPosition.TOP -> 0 to -2
+                FingerPosition.LEFT -> -2 to 0
+                FingerPosition.BOTTOM -> 0 to 2
+                else -> 0 to 0
+            }
+            xs[i] = CENTRE + dx * RADIUS
+            ys[i] = CENTRE + dy * RADIUS
+        }
+        return GestureRecord.Touch(
+            action,
+            LongArray(size) { (start + it) * SAMPLE_INTERVAL_MILLIS },
+            xs,
+            ys
+        )
+    }
+}
@@ -0,0 +1,41 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.ime.YamlLayoutLoader
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.io.ByteArrayInputStream
+
+@State(Scope.Benchmark)
+open class LayoutLoaderBenchmark {
+    @Param("en")
+    lateinit var layout: String
+
+    private lateinit var parser: YamlParser
+    private lateinit var warmLoader: YamlLayoutLoader
+    private lateinit var bytes: ByteArray
+
+    @Setup
+    fun setup() {
+        parser = YamlParser()
+        bytes = Fixtures.layoutFile(layout).readBytes()
+        warmLoader = Fixtures.layoutLoader(parser)
+        warmLoader.loadKeyboardData(ByteArrayInputStream(bytes))
+    }
+
+    /**
+     * Cold start: the common layers are parsed and merged before the layout.
+     */
+    @Benchmark
+    fun loadWithCommonLayers() =
+        Fixtures.layoutLoader(parser).loadKeyboardData(ByteArrayInputStream(bytes))
+
+    /**
+     * Layout switch: the common layers are already loaded.
+     */
+    @Benchmark
+    fun loadLayout() = warmLoader.loadKeyboardData(ByteArrayInputStream(bytes))
+}
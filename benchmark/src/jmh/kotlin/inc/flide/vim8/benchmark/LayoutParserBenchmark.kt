@@ -0,0 +1,36 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.ime.layout.parsers.LayoutParser
+import inc.flide.vim8.ime.layout.parsers.StreamingYamlParser
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.io.ByteArrayInputStream
+
+@State(Scope.Benchmark)
+open class LayoutParserBenchmark {
+    @Param("en")
+    lateinit var layout: String
+
+    @Param("yaml", "trusted", "streaming")
+    lateinit var parserName: String
+
+    private lateinit var parser: LayoutParser
+    private lateinit var bytes: ByteArray
+
+    @Setup
+    fun setup() {
+        parser = when (parserName) {
+            "streaming" -> StreamingYamlParser()
+            "trusted" -> YamlParser(trusted = true)
+            else -> YamlParser()
+        }
+        bytes = Fixtures.layoutFile(layout).readBytes()
+    }
+
+    @Benchmark
+    fun readKeyboardData() = parser.readKeyboardData(ByteArrayInputStream(bytes))
+}
@@ -0,0 +1,37 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.ime.layout.models.CharacterPosition
+import inc.flide.vim8.ime.layout.models.Direction
+import inc.flide.vim8.ime.layout.models.FingerPosition
+import inc.flide.vim8.ime.layout.models.LayerLevel
+import inc.flide.vim8.ime.layout.models.Quadrant
+import inc.flide.vim8.ime.layout.models.opposite
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+@State(Scope.Benchmark)
+open class MovementSequenceBenchmark {
+    private val quadrants = Direction.values().flatMap { sector ->
+        Direction.values()
+            .filter { it != sector && it != sector.opposite() }
+            .map { Quadrant(sector, it) }
+    }
+
+    /**
+     * Every movement sequence a full layout computes for its characters.
+     */
+    @Benchmark
+    fun computeMovementSequence(blackhole: Blackhole) {
+        LayerLevel.VisibleLayers.forEach { layer ->
+            quadrants.forEach { quadrant ->
+                CharacterPosition.values().forEach { position ->
+                    blackhole.consume(
+                        FingerPosition.computeMovementSequence(layer, quadrant, position)
+                    )
+                }
+            }
+        }
+    }
+}
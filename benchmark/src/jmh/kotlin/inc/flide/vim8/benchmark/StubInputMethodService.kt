@@ -0,0 +1,39 @@
+package inc.flide.vim8.benchmark
+
+import inc.flide.vim8.MainInputMethodService
+import inc.flide.vim8.ime.InputMethodActions
+
+/**
+ * Swallows the decoded input, so that only the decoding itself gets measured.
+ */
+class StubInputMethodService : InputMethodActions {
+    override val isPassword = false
+    override val ctrlState = false
+    override val ctrlFlag = 0
+    override var shiftState = MainInputMethodService.State.OFF
+    override val shiftLockFlag = 0
+    override val capsLockFlag = 0
+
+    override fun sendText(text: String?) {}
+    override fun sendDownKeyEvent(keyEventCode: Int, flags: Int) {}
+    override fun sendUpKeyEvent(keyEventCode: Int, flags: Int) {}
+    override fun sendDownAndUpKeyEvent(keyEventCode: Int, flags: Int) {}
+    override fun sendKey(keyEventCode: Int, flags: Int) {}
+    override fun resetShiftState() {}
+    override fun delete() {}
+    override fun cut() {}
+    override fun copy() {}
+    override fun paste() {}
+    override fun commitImeOptionsBasedEnter() {}
+    override fun areCharactersCapitalized() = false
+    override fun switchToExternalEmoticonKeyboard() {}
+    override fun switchAnchor() {}
+    override fun switchToSelectionKeypad() {}
+    override fun switchToClipboardKeypad() {}
+    override fun switchToSymbolsKeypad() {}
+    override fun switchToMainKeypad() {}
+    override fun switchToNumberPad() {}
+    override fun hideKeyboard() {}
+    override fun performShiftToggle() {}
+    override fun performCtrlToggle() {}
+}
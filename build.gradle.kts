@@ -9,6 +9,7 @@ buildscript {
 
 plugins {
     alias(libs.plugins.agp.application) apply false
+    alias(libs.plugins.jmh) apply false
     alias(libs.plugins.ktlint) apply false
     alias(libs.plugins.kotlin.android) apply false
     alias(libs.plugins.kotlin.jvm) apply false
@@ -0,0 +1,35 @@
+@file:Suppress("DSL_SCOPE_VIOLATION")
+
+import java.util.concurrent.Callable
+import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
+
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.ktlint)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+tasks.withType<KotlinCompile> {
+    kotlinOptions {
+        jvmTarget = "17"
+    }
+}
+
+dependencies {
+    // The parsers come from :8vim. The compile<Variant>Layouts tasks run the compiler on the
+    // classes of their own variant, so they are only needed to compile it.
+    compileOnly(
+        files(
+            Callable {
+                project(":8vim").tasks.getByName<KotlinCompile>("compileDebugKotlin")
+                    .destinationDirectory
+            }
+        )
+    )
+    compileOnly(libs.arrow.core)
+    compileOnly(libs.jackson.module.kotlin)
+}
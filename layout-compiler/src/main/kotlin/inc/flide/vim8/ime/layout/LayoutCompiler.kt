@@ -0,0 +1,48 @@
+package inc.flide.vim8.ime.layout
+
+import arrow.core.getOrElse
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import inc.flide.vim8.ime.layout.parsers.CborParser
+import inc.flide.vim8.ime.layout.parsers.YamlParser
+import java.io.File
+import java.security.MessageDigest
+import java.util.Locale
+
+/**
+ * Entry point of the `compile<Variant>Layouts` Gradle tasks.
+ *
+ * Parses every YAML layout given after the output directory and writes the resulting keyboard data
+ * to its [compiledLayoutAsset], so that the app never parses its embedded layouts. The layouts
+ * named after a language are listed in the [LayoutManifest], with the name and number of layers
+ * of their keyboard data and the MD5 of their YAML.
+ */
+object LayoutCompiler {
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val outputDirectory = File(args.first())
+        val layoutParser = YamlParser()
+        val cborParser = CborParser()
+        val isoLanguages = Locale.getISOLanguages().toSet()
+        val manifest = args.drop(1).map(::File).sortedBy { it.name }.mapNotNull { layout ->
+            val keyboardData = layout.inputStream()
+                .use { layoutParser.readKeyboardData(it) }
+                .getOrElse { error("${layout.name}: ${it.message}") }
+            val compiled = File(outputDirectory, compiledLayoutAsset(layout.nameWithoutExtension))
+            compiled.parentFile?.mkdirs()
+            check(cborParser.save(compiled, keyboardData)) { "Could not write $compiled" }
+            LayoutManifestEntry(
+                locale = layout.nameWithoutExtension,
+                name = keyboardData.info.name,
+                totalLayers = keyboardData.totalLayers,
+                md5 = md5(layout)
+            ).takeIf { isoLanguages.contains(it.locale) }
+        }
+        val manifestFile = File(outputDirectory, LayoutManifest.ASSET)
+        manifestFile.parentFile?.mkdirs()
+        jacksonObjectMapper().writerWithDefaultPrettyPrinter().writeValue(manifestFile, manifest)
+    }
+
+    private fun md5(file: File): String = MessageDigest.getInstance("MD5")
+        .digest(file.readBytes())
+        .joinToString("") { "%02x".format(it) }
+}
@@ -14,4 +14,6 @@ dependencyResolutionManagement {
     }
 }
 
-include(":8vim")
\ No newline at end of file
+include(":8vim")
+include(":benchmark")
+include(":layout-compiler")